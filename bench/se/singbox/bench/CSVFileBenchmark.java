@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se.singbox.filetypes.CSVFile;
+import se.singbox.filetypes.LocaleStringDictionary;
+import se.singbox.filetypes.ParallelCSVFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/** Measures reading and writing a CSV master */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CSVFileBenchmark {
+  @Param({"10000", "100000", "500000"})
+  public int numKeys;
+
+  @Param({"5"})
+  public int numLocales;
+
+  private File corpusDir;
+  private File inputFile;
+  private File outputFile;
+  private LocaleStringDictionary strings;
+
+  @Setup
+  public void generate() throws IOException {
+    corpusDir = Files.createTempDirectory("l10n-bench").toFile();
+    inputFile = new File(corpusDir, "master.csv");
+    outputFile = new File(corpusDir, "output.csv");
+    new CorpusGenerator().generateCSV(inputFile, numKeys, numLocales);
+    strings = new CSVFile().read(inputFile.getPath());
+  }
+
+  @TearDown
+  public void delete() throws IOException {
+    CorpusGenerator.delete(corpusDir);
+  }
+
+  @Benchmark
+  public LocaleStringDictionary read() throws IOException {
+    return new CSVFile().read(inputFile.getPath());
+  }
+
+  @Benchmark
+  public LocaleStringDictionary readParallel() throws IOException {
+    return new ParallelCSVFile(Runtime.getRuntime().availableProcessors()).read(inputFile.getPath());
+  }
+
+  @Benchmark
+  public boolean write() throws IOException {
+    return new CSVFile().write(outputFile.getPath(), strings);
+  }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.bench;
+
+import org.apache.poi.hssf.usermodel.HSSFRow;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.hssf.usermodel.HSSFRichTextString;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates synthetic inputs for the benchmarks: source trees referencing locale
+ * keys, CSV and XLS masters, and directories of locale properties files.  The
+ * output only depends on the arguments and the seed, so that benchmark runs on
+ * different machines or revisions measure the same inputs.
+ */
+public class CorpusGenerator {
+  public static final long DEFAULT_SEED = 20090101L;
+  public static final String PROPERTY_FILE_NAME = "myResources.properties";
+  /** The XLS format can not hold more rows than this, including the header row */
+  public static final int MAX_XLS_ROWS = 65536;
+  /** Number of source files in each generated directory */
+  private static final int FILES_PER_DIRECTORY = 50;
+  private static final String[] WORDS = {"account", "cancel", "delete", "edit", "file", "help",
+    "invalid", "loading", "message", "name", "open", "password", "quit", "save", "search",
+    "settings", "title", "user", "value", "window"};
+
+  private final long seed;
+
+  public CorpusGenerator() {
+    this(DEFAULT_SEED);
+  }
+
+  /**
+   * @param seed Seed of the random generator, the same seed always gives the same corpus
+   */
+  public CorpusGenerator(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * @param index Number of the key, starting at 0
+   * @return Name of the key, eg. KEY_000042
+   */
+  public static String getKey(int index) {
+    return String.format("KEY_%06d", index);
+  }
+
+  /**
+   * @param index Number of the locale, starting at 0
+   * @return A distinct locale name for each index, eg. aa_AA, ab_AB
+   */
+  public static String getLocale(int index) {
+    char first = (char)('a' + (index / 26) % 26);
+    char second = (char)('a' + index % 26);
+    return "" + first + second + "_" + Character.toUpperCase(first) + Character.toUpperCase(second);
+  }
+
+  /**
+   * Generates a tree of ActionScript files, with a mix of both supported call styles
+   * and lines of unrelated code between the calls
+   * @param dir Directory to generate the tree in
+   * @param numFiles Number of source files
+   * @param keysPerFile Number of key references in each file
+   * @param numKeys References are spread over keys 0 to numKeys - 1
+   * @return The set of keys referenced by at least one file
+   * @throws IOException If a file could not be written
+   */
+  public Set<String> generateSourceTree(File dir, int numFiles, int keysPerFile, int numKeys) throws IOException {
+    Random random = new Random(seed);
+    Set<String> usedKeys = new HashSet<String>();
+    for(int i = 0; i < numFiles; i++) {
+      File packageDir = new File(dir, "pkg" + (i / FILES_PER_DIRECTORY) + File.separator + "view");
+      if(!packageDir.isDirectory() && !packageDir.mkdirs()) {
+        throw new IOException("Could not create directory '" + packageDir + "'");
+      }
+
+      BufferedWriter writer = createWriter(new File(packageDir, "View" + i + ".as"));
+      try {
+        writer.write("package pkg" + (i / FILES_PER_DIRECTORY) + ".view {\n");
+        writer.write("  import mx.resources.ResourceManager;\n\n");
+        writer.write("  public class View" + i + " {\n");
+        for(int j = 0; j < keysPerFile; j++) {
+          String key = getKey(random.nextInt(numKeys));
+          usedKeys.add(key);
+          writer.write("    public function " + randomWord(random) + j + "():void {\n");
+          writer.write("      var " + randomWord(random) + ":String = \"" + randomSentence(random, 4) + "\";\n");
+          if(random.nextBoolean()) {
+            writer.write("      label.text = ResourceManager.getInstance().getString(\"myResources\", \"" + key + "\");\n");
+          }
+          else {
+            writer.write("      label.text = resourceManager.getString('myResources', '" + key + "');\n");
+          }
+          writer.write("    }\n\n");
+        }
+        writer.write("  }\n}\n");
+      }
+      finally {
+        writer.close();
+      }
+    }
+    return usedKeys;
+  }
+
+  /**
+   * Generates a CSV master in the format read by CSVFile
+   * @param file File to write
+   * @param numKeys Number of rows, not counting the header
+   * @param numLocales Number of locale columns
+   * @throws IOException If the file could not be written
+   */
+  public void generateCSV(File file, int numKeys, int numLocales) throws IOException {
+    Random random = new Random(seed);
+    BufferedWriter writer = createWriter(file);
+    try {
+      writer.write("LOCALE KEY");
+      for(int j = 0; j < numLocales; j++) {
+        writer.write("," + getLocale(j));
+      }
+      writer.write("\n");
+      for(int i = 0; i < numKeys; i++) {
+        writer.write(getKey(i));
+        for(int j = 0; j < numLocales; j++) {
+          // Quoted like CSVFile.write() does, with the odd embedded quote and comma
+          String value = randomSentence(random, 1 + random.nextInt(8));
+          if(random.nextInt(10) == 0) {
+            value = "\"" + value + "\", " + value;
+          }
+          writer.write(",\"" + value.replace("\"", "\"\"") + "\"");
+        }
+        writer.write("\n");
+      }
+    }
+    finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Generates an XLS master in the format read by XLSFile
+   * @param file File to write
+   * @param numKeys Number of rows, not counting the header, at most MAX_XLS_ROWS - 1
+   * @param numLocales Number of locale columns
+   * @throws IOException If the file could not be written
+   */
+  public void generateXLS(File file, int numKeys, int numLocales) throws IOException {
+    if(numKeys >= MAX_XLS_ROWS) {
+      throw new IllegalArgumentException("XLS files can hold at most " + (MAX_XLS_ROWS - 1) + " keys");
+    }
+    Random random = new Random(seed);
+    HSSFWorkbook workbook = new HSSFWorkbook();
+    HSSFSheet sheet = workbook.createSheet("Locale keys");
+    HSSFRow header = sheet.createRow(0);
+    header.createCell(0).setCellValue(new HSSFRichTextString("LOCALE KEY"));
+    for(int j = 0; j < numLocales; j++) {
+      header.createCell(j + 1).setCellValue(new HSSFRichTextString(getLocale(j)));
+    }
+    for(int i = 0; i < numKeys; i++) {
+      HSSFRow row = sheet.createRow(i + 1);
+      row.createCell(0).setCellValue(new HSSFRichTextString(getKey(i)));
+      for(int j = 0; j < numLocales; j++) {
+        row.createCell(j + 1).setCellValue(new HSSFRichTextString(randomSentence(random, 1 + random.nextInt(8))));
+      }
+    }
+
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+    try {
+      workbook.write(out);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Generates a directory with one subdirectory per locale, each containing a
+   * properties file.  Every locale except the first leaves out some of the keys.
+   * @param dir Directory to generate the locales in
+   * @param numKeys Number of keys in the first locale
+   * @param numLocales Number of locales
+   * @param missingPercent Percentage of keys left out of each of the other locales
+   * @throws IOException If a file could not be written
+   */
+  public void generatePropertiesDir(File dir, int numKeys, int numLocales, int missingPercent) throws IOException {
+    Random random = new Random(seed);
+    for(int j = 0; j < numLocales; j++) {
+      File localeDir = new File(dir, getLocale(j));
+      if(!localeDir.isDirectory() && !localeDir.mkdirs()) {
+        throw new IOException("Could not create directory '" + localeDir + "'");
+      }
+      BufferedWriter writer = createWriter(new File(localeDir, PROPERTY_FILE_NAME));
+      try {
+        for(int i = 0; i < numKeys; i++) {
+          if(j == 0 || random.nextInt(100) >= missingPercent) {
+            writer.write(getKey(i) + "=" + randomSentence(random, 1 + random.nextInt(8)) + "\n");
+          }
+        }
+      }
+      finally {
+        writer.close();
+      }
+    }
+  }
+
+  /**
+   * Deletes a generated corpus
+   * @param file File or directory to delete
+   * @throws IOException If anything could not be deleted
+   */
+  public static void delete(File file) throws IOException {
+    File[] children = file.listFiles();
+    if(children != null) {
+      for(File child : children) {
+        delete(child);
+      }
+    }
+    if(file.exists() && !file.delete()) {
+      throw new IOException("Could not delete '" + file + "'");
+    }
+  }
+
+  private static BufferedWriter createWriter(File file) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF8"));
+  }
+
+  private static String randomWord(Random random) {
+    return WORDS[random.nextInt(WORDS.length)];
+  }
+
+  private static String randomSentence(Random random, int numWords) {
+    StringBuilder sentence = new StringBuilder();
+    for(int i = 0; i < numWords; i++) {
+      if(i > 0) {
+        sentence.append(' ');
+      }
+      sentence.append(randomWord(random));
+    }
+    return sentence.toString();
+  }
+
+  /**
+   * Generates a complete corpus, for inspecting the inputs or benchmarking outside of JMH.
+   * Usage: CorpusGenerator outputDir [numFiles] [numKeys] [numLocales]
+   */
+  public static void main(String[] args) throws IOException {
+    if(args.length < 1) {
+      System.err.println("Usage: CorpusGenerator outputDir [numFiles] [numKeys] [numLocales]");
+      System.exit(1);
+    }
+    File outputDir = new File(args[0]);
+    int numFiles = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    int numKeys = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+    int numLocales = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+    CorpusGenerator generator = new CorpusGenerator();
+    generator.generateSourceTree(new File(outputDir, "src"), numFiles, 20, numKeys);
+    generator.generatePropertiesDir(new File(outputDir, "locale"), numKeys, numLocales, 1);
+    generator.generateCSV(new File(outputDir, "master.csv"), numKeys, numLocales);
+    if(numKeys < MAX_XLS_ROWS) {
+      generator.generateXLS(new File(outputDir, "master.xls"), numKeys, numLocales);
+    }
+    else {
+      System.out.println("Skipped master.xls, as XLS files can hold at most " + (MAX_XLS_ROWS - 1) + " keys");
+    }
+    System.out.println("Generated " + numFiles + " source files, " + numKeys + " keys and " +
+      numLocales + " locales in " + outputDir);
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import se.singbox.scanner.FileScanner;
+import se.singbox.scanner.FolderScanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/** Measures scanning every file of a source tree with a single FileScanner */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileScannerBenchmark {
+  @Param({"regex", "native"})
+  public String matcher;
+
+  @Param({"1000"})
+  public int numFiles;
+
+  @Param({"20"})
+  public int keysPerFile;
+
+  private File corpusDir;
+  private Collection<File> sourceFiles;
+  private FileScanner scanner;
+
+  @Setup
+  public void generate() throws IOException {
+    corpusDir = Files.createTempDirectory("l10n-bench").toFile();
+    new CorpusGenerator().generateSourceTree(corpusDir, numFiles, keysPerFile, numFiles * keysPerFile / 2);
+    sourceFiles = new FolderScanner().scanFolder(corpusDir.getPath(), "as");
+    scanner = new FileScanner();
+    scanner.setMatcher(matcher);
+  }
+
+  @TearDown
+  public void delete() throws IOException {
+    CorpusGenerator.delete(corpusDir);
+  }
+
+  @Benchmark
+  public void scan(Blackhole blackhole) throws IOException {
+    for(File sourceFile : sourceFiles) {
+      blackhole.consume(scanner.scan(sourceFile));
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se.singbox.scanner.FolderScanner;
+import se.singbox.scanner.LocaleCheckResult;
+import se.singbox.scanner.LocaleKeyChecker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading all locales and checking them against the keys used by the
+ * source code, including finding the unused keys
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LocaleKeyCheckerBenchmark {
+  @Param({"10000", "100000", "500000"})
+  public int numKeys;
+
+  @Param({"5"})
+  public int numLocales;
+
+  @Param({"1", "4"})
+  public int threads;
+
+  private File corpusDir;
+  private Collection<File> localeFiles;
+  private Set<String> usedKeys;
+
+  @Setup
+  public void generate() throws IOException {
+    corpusDir = Files.createTempDirectory("l10n-bench").toFile();
+    new CorpusGenerator().generatePropertiesDir(corpusDir, numKeys, numLocales, 1);
+    localeFiles = new FolderScanner().scanFolder(corpusDir.getPath(), "properties");
+
+    // Most keys are used, and a few used keys are not defined by any locale
+    usedKeys = new HashSet<String>();
+    for(int i = 0; i < numKeys + numKeys / 100; i++) {
+      if(i % 10 != 0) {
+        usedKeys.add(CorpusGenerator.getKey(i));
+      }
+    }
+  }
+
+  @TearDown
+  public void delete() throws IOException {
+    CorpusGenerator.delete(corpusDir);
+  }
+
+  @Benchmark
+  public List<LocaleCheckResult> checkAll() throws IOException {
+    return new LocaleKeyChecker().checkAll(localeFiles, usedKeys, true, threads);
+  }
+}
@@ -30,181 +30,104 @@ package se.singbox.filetypes;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-public class CSVFile implements LocaleSourceFile {
+public class CSVFile implements LocaleSourceFile, LocaleSourceReader {
   public LocaleStringDictionary read(String filename) throws IOException {
-    LocaleStringDictionary outStrings = new LocaleStringDictionary();
-    BufferedReader fileReader = new BufferedReader(
-      new InputStreamReader(new FileInputStream(filename), "UTF8"));
-
-    String fileLine = fileReader.readLine();
-    List<String> parsedLocales = parseCSVFields(fileLine);
-    LocaleStringSet localeMap = new LocaleStringSet();
-    if(!parsedLocales.get(0).equals("LOCALE KEY")) {
-      throw new IOException("Malformed CSV file; needs 'LOCALE KEY' header as first row");
-    }
-    for(int i = 1; i < parsedLocales.size(); i++) {
-      localeMap.put(parsedLocales.get(i), null);
-    }
-    outStrings.put("LOCALE KEY", localeMap);
-
-    while((fileLine = fileReader.readLine()) != null) {
-      List<String> parsedFields = parseCSVFields(fileLine);
-      /*
-      for(String f : parsedFields) {
-        System.out.print("FOUND '" + f + "'");
-      }
-      System.out.println("  ");
-      */
-      LocaleStringSet stringMap = new LocaleStringSet();
-      for(int i = 1; i < parsedFields.size(); i++) {
-        //System.out.println("KEY: '" + parsedFields.get(0) + "', VALUE: '" + parsedFields.get(i) + "'");
-        stringMap.put(parsedLocales.get(i), parsedFields.get(i));
-      }
-      outStrings.put(parsedFields.get(0), stringMap);
-    }
-
-    return outStrings;
+    DictionaryBuilder builder = new DictionaryBuilder();
+    read(filename, builder);
+    return builder.getDictionary();
   }
 
   /**
-   * Breaks apart a CSV line into individual strings, stripping quotation marks from fields
-   * @param line String to parse
-   * @return A list of fields
+   * Reads the file one record at a time, passing each row to the handler as soon as it
+   * has been parsed, so memory use does not depend on the size of the file.  Values
+   * may be quoted and span several lines, see CSVTokenizer.  Empty lines are skipped.
+   * @param filename CSV file to read
+   * @param handler Receives the locale names and then each row
+   * @throws IOException If the file could not be read or is malformed
    */
-  private List<String> parseCSVFields(String line) {
-    final int STATE_NOT_IN_STRING = 0;
-    final int STATE_IN_STRING = 1;
-    final int STATE_IN_QUOTED_STRING = 2;
-
-    ArrayList<String> outFields = new ArrayList<String>();
-    int currentPosition = 0;
-    int startPosition = 0;
-    int currentState = STATE_NOT_IN_STRING;
-    while(currentPosition != line.length()) {
-      //System.out.println("Current state: " + currentState + ", current char: " + line.charAt(currentPosition));
-      switch(currentState) {
-        case STATE_NOT_IN_STRING:
-          if(currentPosition > startPosition) {
-            // Take off the comma
-            char fieldBytes[] = new char[currentPosition - startPosition - 1];
-            line.getChars(startPosition, currentPosition - 1, fieldBytes, 0);
-            outFields.add(removeStringPadding(new String(fieldBytes)));
-          }
-
-          startPosition = currentPosition;
-          if(line.charAt(currentPosition) == '"') {
-            currentState = STATE_IN_QUOTED_STRING;
-          }
-          else {
-            currentState = STATE_IN_STRING;
-          }
-          break;
-        case STATE_IN_STRING:
-          if(line.charAt(currentPosition) == ',') {
-            currentState = STATE_NOT_IN_STRING;
-          }
-          break;
-        case STATE_IN_QUOTED_STRING:
-          if(line.charAt(currentPosition) == '"') {
-            if(currentPosition + 1 < line.length()) {
-              if(line.charAt(currentPosition + 1) == '"') {
-                currentPosition++;
-              }
-              else {
-                currentState = STATE_NOT_IN_STRING;
-              }
-            }
-          }
-          break;
-        default:
-          break;
-      }
-      currentPosition++;
+  public void read(String filename, LocaleRowHandler handler) throws IOException {
+    CSVTokenizer tokenizer = new CSVTokenizer(new InputStreamReader(new FileInputStream(filename), "UTF8"));
+    try {
+      readHeader(tokenizer, handler);
+      readRows(tokenizer, handler);
     }
-
-    // Copy last field
-    if(currentPosition > startPosition) {
-      char fieldBytes[] = new char[currentPosition - startPosition];
-      line.getChars(startPosition, currentPosition, fieldBytes, 0);
-      outFields.add(removeStringPadding(new String(fieldBytes)));
+    finally {
+      tokenizer.close();
     }
-
-    return outFields;
   }
 
   /**
-   * Removes CSV formatting from a string, which includes stripping leading and trailing
-   * quotation marks (if they exist), and replacing double quotation marks with single
-   * instances.
-   * @param inString The string to process
-   * @return Another string without padding and double quotes
+   * Reads the first record, which must list the locales
+   * @return Number of locales
    */
-  public static String removeStringPadding(String inString) {
-    int startPosition = 0;
-    int endPosition = inString.length();
-    if(inString.charAt(0) == '"') {
-      startPosition++;
+  static int readHeader(CSVTokenizer tokenizer, LocaleRowHandler handler) throws IOException {
+    if(!tokenizer.nextRecord() || !tokenizer.fieldEquals(0, "LOCALE KEY")) {
+      throw new IOException("Malformed CSV file; needs 'LOCALE KEY' header as first row");
     }
-    if(inString.charAt(inString.length() - 1) == '"') {
-      endPosition--;
+    List<String> parsedLocales = new ArrayList<String>();
+    for(int i = 1; i < tokenizer.getNumFields(); i++) {
+      parsedLocales.add(tokenizer.getString(i));
     }
-    char outBytes[] = new char[endPosition];
-    inString.getChars(startPosition, endPosition, outBytes, 0);
-    String outString = new String(outBytes);
-    return outString.replace("\"\"", "\"");
+    handler.handleHeader(parsedLocales);
+    return parsedLocales.size();
   }
 
-  public boolean write(String filename, LocaleStringDictionary inStrings) throws IOException {
-    BufferedWriter outStream = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename), "UTF8"));
+  /** Passes every remaining record except for empty lines to the handler */
+  static void readRows(CSVTokenizer tokenizer, LocaleRowHandler handler) throws IOException {
+    List<CharSequence> values = new ArrayList<CharSequence>();
+    while(tokenizer.nextRecord()) {
+      if(tokenizer.isBlankLine()) {
+        continue;
+      }
+      values.clear();
+      for(int i = 1; i < tokenizer.getNumFields(); i++) {
+        values.add(tokenizer.getField(i));
+      }
+      handler.handleRow(tokenizer.getString(0), values);
+    }
+  }
 
+  /**
+   * Writes all strings in the dictionary, without modifying it
+   * @param filename CSV file to write
+   * @param inStrings Strings to write, where the "LOCALE KEY" entry lists the locales
+   * @return True if the file was written
+   * @throws IOException If the file could not be written
+   */
+  public boolean write(String filename, LocaleStringDictionary inStrings) throws IOException {
     // Build array of locales to put
     LocaleStringSet localeNames = inStrings.get("LOCALE KEY");
     if(localeNames == null) {
       throw new IOException("Could not find 'LOCALE KEY' string in input map");
     }
-
-    // First write the LOCALE KEY and all of the locales to file
-    outStream.write("LOCALE KEY");
-    for(String locale : localeNames.keySet()) {
-      outStream.write("," + locale);
-    }
-    outStream.write(System.getProperty("line.separator"));
-    // This key is no longer needed
-    inStrings.remove("LOCALE KEY");
-
-    // Now go through the rest of the keys and write them all to the file in the
-    // same order
-    int writtenKeys = 0;
-    for(String key : inStrings.keySet()) {
-      LocaleStringSet keyStrings = inStrings.get(key);
-      outStream.write(key);
-      for(String locale : localeNames.keySet()) {
-        // System.out.println("Writing key: '" + key + "', locale: '" + locale + "'");
-        outStream.write("," + addStringPadding(keyStrings.get(locale)));
-        writtenKeys++;
+    List<String> locales = Arrays.asList(localeNames.keySet());
+
+    CSVWriter outStream = new CSVWriter(new OutputStreamWriter(new FileOutputStream(filename), "UTF8"));
+    try {
+      // First write the LOCALE KEY and all of the locales to file
+      outStream.handleHeader(locales);
+
+      // Now go through the rest of the keys and write them all to the file in the
+      // same order
+      List<CharSequence> values = new ArrayList<CharSequence>(locales.size());
+      for(String key : inStrings.keySet()) {
+        if(key.equals("LOCALE KEY")) {
+          continue;
+        }
+        LocaleStringSet keyStrings = inStrings.get(key);
+        values.clear();
+        for(String locale : locales) {
+          values.add(keyStrings.get(locale));
+        }
+        outStream.handleRow(key, values);
       }
-      outStream.write(System.getProperty("line.separator"));
     }
-
-    System.out.println("Wrote " + writtenKeys + " keys to file");
-    outStream.flush();
-    outStream.close();
-    return true;
-  }
-
-  /**
-   * Escapes all spaces, commas, and other special characters to make a proper CSV string
-   * see: http://en.wikipedia.org/wiki/Comma-separated_values
-   * @param inString Input String
-   * @return A string suitable to use in a CSV file
-   */
-  private String addStringPadding(String inString) {
-    String outString = inString;
-    if(inString == null || inString.isEmpty()) {
-      outString = " ";
+    finally {
+      outStream.close();
     }
-    return "\"" + outString.replace("\"", "\"\"") + "\"";
+    return true;
   }
 }
@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.filetypes;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits comma-separated values into records and fields as described by RFC 4180.
+ * Fields may be quoted, in which case they can contain commas, line breaks and
+ * quotation marks written twice.  Records end with CRLF, LF or CR.
+ * <p>
+ * Input is read into a single buffer which is reused for every record, and quoted
+ * fields are unescaped in place, so fields are returned as views of the buffer
+ * without copying them.  Fields are only valid until the next call to nextRecord().
+ * The buffer only grows if a single record does not fit in it.
+ */
+public class CSVTokenizer {
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+  private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+  private final Reader reader;
+  private char[] buffer;
+  /** End of the characters read into the buffer */
+  private int limit = 0;
+  /** Next character to parse */
+  private int position = 0;
+  private boolean endOfInput = false;
+  private boolean startOfInput = true;
+
+  /** Everything from here on is kept in the buffer when reading more input */
+  private int recordStart = 0;
+  private int fieldStart = 0;
+  /** Where the next character of a quoted field is unescaped to */
+  private int writePosition = 0;
+  private int numFields = 0;
+  private int[] fieldStarts = new int[16];
+  private int[] fieldEnds = new int[16];
+  private final List<CharSlice> slices = new ArrayList<CharSlice>();
+
+  private int lineNumber = 0;
+  private int recordLineNumber = 0;
+  /** Set when quotation marks are found anywhere but around a whole field */
+  private boolean irregularQuotes = false;
+
+  /**
+   * @param reader Input to tokenize, which does not need to be buffered
+   */
+  public CSVTokenizer(Reader reader) {
+    this(reader, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param reader Input to tokenize, which does not need to be buffered
+   * @param bufferSize Initial size of the buffer, in characters
+   */
+  public CSVTokenizer(Reader reader, int bufferSize) {
+    if(bufferSize < 1) {
+      throw new IllegalArgumentException("Buffer size must be at least 1");
+    }
+    this.reader = reader;
+    this.buffer = new char[bufferSize];
+  }
+
+  /**
+   * Tokenizes characters which are already in memory, without copying them.  Quoted
+   * fields are unescaped in place, so the array is modified.
+   * @param chars Array holding the input
+   * @param offset Index of the first character
+   * @param length Number of characters
+   */
+  CSVTokenizer(char[] chars, int offset, int length) {
+    this.reader = null;
+    this.buffer = chars;
+    this.position = offset;
+    this.limit = offset + length;
+    this.endOfInput = true;
+  }
+
+  /**
+   * Used when the input starts in the middle of a file, where a byte order mark would
+   * be part of the first field and the line numbers don't start at 1
+   * @param linesRead Number of lines before the input
+   */
+  void setStartOfInput(boolean startOfInput, int linesRead) {
+    this.startOfInput = startOfInput;
+    this.lineNumber = linesRead;
+  }
+
+  /**
+   * Parses the next record
+   * @return False if there are no more records
+   * @throws IOException If the input could not be read, or ends inside a quoted field
+   */
+  public boolean nextRecord() throws IOException {
+    numFields = 0;
+    recordStart = position;
+    if(startOfInput) {
+      startOfInput = false;
+      if(ensureAvailable() && buffer[position] == BYTE_ORDER_MARK) {
+        position++;
+        recordStart = position;
+      }
+    }
+    if(!ensureAvailable()) {
+      return false;
+    }
+    recordLineNumber = lineNumber + 1;
+
+    while(true) {
+      fieldStart = position;
+      if(ensureAvailable() && buffer[position] == '"') {
+        position++;
+        readQuotedField();
+      }
+      else {
+        readUnquotedField();
+      }
+
+      if(!ensureAvailable()) {
+        // The last record doesn't need to end with a line break
+        lineNumber++;
+        return true;
+      }
+      char delimiter = buffer[position++];
+      if(delimiter != ',') {
+        if(delimiter == '\r' && ensureAvailable() && buffer[position] == '\n') {
+          position++;
+        }
+        lineNumber++;
+        return true;
+      }
+    }
+  }
+
+  private void readUnquotedField() throws IOException {
+    do {
+      char[] chars = buffer;
+      int end = limit;
+      int current = position;
+      while(current < end) {
+        char c = chars[current];
+        if(c == ',' || c == '\n' || c == '\r') {
+          position = current;
+          addField(fieldStart, current);
+          return;
+        }
+        else if(c == '"') {
+          irregularQuotes = true;
+        }
+        current++;
+      }
+      position = current;
+    } while(fill());
+    addField(fieldStart, position);
+  }
+
+  /**
+   * Reads a quoted field, whose opening quotation mark has been consumed.  Doubled
+   * quotation marks are unescaped by moving the rest of the field left in the buffer.
+   */
+  private void readQuotedField() throws IOException {
+    fieldStart = position;
+    writePosition = position;
+    while(true) {
+      char[] chars = buffer;
+      int end = limit;
+      int current = position;
+      int write = writePosition;
+      while(current < end) {
+        char c = chars[current];
+        if(c == '"') {
+          break;
+        }
+        else if(c == '\n') {
+          lineNumber++;
+        }
+        if(write != current) {
+          chars[write] = c;
+        }
+        write++;
+        current++;
+      }
+      position = current;
+      writePosition = write;
+
+      if(position == limit) {
+        if(!fill()) {
+          throw new IOException("Quoted field starting on line " + recordLineNumber + " is never closed");
+        }
+      }
+      else {
+        // At a quotation mark, which is either escaped or closes the field
+        position++;
+        if(ensureAvailable() && buffer[position] == '"') {
+          buffer[writePosition++] = '"';
+          position++;
+        }
+        else {
+          break;
+        }
+      }
+    }
+
+    // Characters between the closing quotation mark and the next delimiter are not allowed
+    // by RFC 4180, but are kept as they are, like spreadsheets do
+    while(ensureAvailable()) {
+      char c = buffer[position];
+      if(c == ',' || c == '\n' || c == '\r') {
+        break;
+      }
+      buffer[writePosition++] = c;
+      position++;
+      irregularQuotes = true;
+    }
+    addField(fieldStart, writePosition);
+  }
+
+  private void addField(int start, int end) {
+    if(numFields == fieldStarts.length) {
+      fieldStarts = Arrays.copyOf(fieldStarts, numFields * 2);
+      fieldEnds = Arrays.copyOf(fieldEnds, numFields * 2);
+    }
+    fieldStarts[numFields] = start;
+    fieldEnds[numFields] = end;
+    numFields++;
+  }
+
+  /** @return True if there is at least one more character to parse */
+  private boolean ensureAvailable() throws IOException {
+    return position < limit || fill();
+  }
+
+  /**
+   * Reads more input, first moving the current record to the start of the buffer,
+   * or growing the buffer if the record already fills all of it
+   * @return False if there is no more input
+   */
+  private boolean fill() throws IOException {
+    if(endOfInput) {
+      return false;
+    }
+
+    int shift = recordStart;
+    if(shift > 0) {
+      System.arraycopy(buffer, shift, buffer, 0, limit - shift);
+      limit -= shift;
+      position -= shift;
+      recordStart = 0;
+      fieldStart -= shift;
+      writePosition -= shift;
+      for(int i = 0; i < numFields; i++) {
+        fieldStarts[i] -= shift;
+        fieldEnds[i] -= shift;
+      }
+    }
+    if(limit == buffer.length) {
+      buffer = Arrays.copyOf(buffer, buffer.length * 2);
+    }
+
+    int numRead = reader.read(buffer, limit, buffer.length - limit);
+    if(numRead < 0) {
+      endOfInput = true;
+      return false;
+    }
+    limit += numRead;
+    return true;
+  }
+
+  /** @return Number of fields in the current record, which is at least 1 */
+  public int getNumFields() {
+    return numFields;
+  }
+
+  /**
+   * @param index Index of the field, starting at 0
+   * @return The field without quotes or escaping, valid until the next record is read
+   */
+  public CharSequence getField(int index) {
+    if(index < 0 || index >= numFields) {
+      throw new IndexOutOfBoundsException("Field " + index + " out of " + numFields);
+    }
+    while(slices.size() <= index) {
+      slices.add(new CharSlice());
+    }
+    CharSlice slice = slices.get(index);
+    slice.reset(buffer, fieldStarts[index], fieldEnds[index] - fieldStarts[index]);
+    return slice;
+  }
+
+  /**
+   * @param index Index of the field, starting at 0
+   * @return A copy of the field, which remains valid
+   */
+  public String getString(int index) {
+    if(index < 0 || index >= numFields) {
+      throw new IndexOutOfBoundsException("Field " + index + " out of " + numFields);
+    }
+    return new String(buffer, fieldStarts[index], fieldEnds[index] - fieldStarts[index]);
+  }
+
+  /**
+   * @param index Index of the field, starting at 0
+   * @param string String to compare with
+   * @return True if the field contains exactly the string
+   */
+  public boolean fieldEquals(int index, String string) {
+    return ((CharSlice)getField(index)).contentEquals(string);
+  }
+
+  /** @return True if the current record is an empty line */
+  public boolean isBlankLine() {
+    return numFields == 1 && fieldEnds[0] == fieldStarts[0];
+  }
+
+  /**
+   * @return True if a quotation mark was found inside an unquoted field or after a closing
+   * quotation mark.  Such quotes are kept as they are, but mean that the input can't be split
+   * into records by counting quotation marks.
+   */
+  boolean hasIrregularQuotes() {
+    return irregularQuotes;
+  }
+
+  /** @return Number of lines read so far, including any before the input */
+  int getLinesRead() {
+    return lineNumber;
+  }
+
+  /** @return The array holding the fields, see getFieldStart() */
+  char[] getBuffer() {
+    return buffer;
+  }
+
+  int getFieldStart(int index) {
+    return fieldStarts[index];
+  }
+
+  int getFieldEnd(int index) {
+    return fieldEnds[index];
+  }
+
+  /** @return The line on which the current record starts, starting at 1 */
+  public int getLineNumber() {
+    return recordLineNumber;
+  }
+
+  public void close() throws IOException {
+    if(reader != null) {
+      reader.close();
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.filetypes;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes rows of locale strings as comma-separated values, in the format read by
+ * CSVFile.  Every field is escaped straight into a reusable buffer, which is flushed
+ * to the underlying writer in large blocks, so no strings are created per cell and the
+ * underlying writer does not need to be buffered.  As a LocaleRowHandler, it can be
+ * given the rows of any LocaleSourceReader.
+ * <p>
+ * Values are always quoted, and missing or empty values are written as a single space
+ * so that spreadsheets keep the cell.  The header and the keys are only quoted when
+ * they contain characters which need it.
+ */
+public class CSVWriter implements LocaleRowWriter {
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  private final Writer writer;
+  private final char[] lineSeparator = System.getProperty("line.separator").toCharArray();
+  private char[] buffer;
+  private int length = 0;
+  private int numRows = 0;
+
+  /**
+   * @param writer Writer to write to, which is closed by close()
+   */
+  public CSVWriter(Writer writer) {
+    this(writer, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param writer Writer to write to, which is closed by close()
+   * @param bufferSize Number of characters to collect before writing them
+   */
+  public CSVWriter(Writer writer, int bufferSize) {
+    if(bufferSize < 1) {
+      throw new IllegalArgumentException("Buffer size must be at least 1");
+    }
+    this.writer = writer;
+    this.buffer = new char[bufferSize];
+  }
+
+  /**
+   * Writes the header row
+   * @param locales Names of the locales, in the order of each row's values
+   */
+  public void handleHeader(List<String> locales) throws IOException {
+    writeField("LOCALE KEY", false);
+    for(String locale : locales) {
+      append(',');
+      writeField(locale, false);
+    }
+    endRow();
+  }
+
+  /**
+   * Writes a row of strings
+   * @param key The row's locale key
+   * @param values The row's strings in the order of the locales, where null means the
+   * string is missing
+   */
+  public void handleRow(String key, List<CharSequence> values) throws IOException {
+    writeField(key, false);
+    for(int i = 0; i < values.size(); i++) {
+      append(',');
+      writeField(values.get(i), true);
+    }
+    endRow();
+    numRows++;
+  }
+
+  /** @return Number of rows written, not counting the header */
+  public int getNumRows() {
+    return numRows;
+  }
+
+  /**
+   * @param field Field to write, or null for a missing value
+   * @param alwaysQuote True to quote the field even if it doesn't need it
+   */
+  private void writeField(CharSequence field, boolean alwaysQuote) throws IOException {
+    int fieldLength = field == null ? 0 : field.length();
+    if(fieldLength == 0) {
+      if(alwaysQuote) {
+        ensureCapacity(3);
+        buffer[length++] = '"';
+        buffer[length++] = ' ';
+        buffer[length++] = '"';
+      }
+      return;
+    }
+
+    boolean quote = alwaysQuote || needsQuotes(field);
+    // Worst case, every character is a quotation mark which has to be doubled
+    ensureCapacity(fieldLength * 2 + 2);
+    char[] chars = buffer;
+    int end = length;
+    if(quote) {
+      chars[end++] = '"';
+    }
+    for(int i = 0; i < fieldLength; i++) {
+      char c = field.charAt(i);
+      if(c == '"') {
+        chars[end++] = '"';
+      }
+      chars[end++] = c;
+    }
+    if(quote) {
+      chars[end++] = '"';
+    }
+    length = end;
+  }
+
+  private static boolean needsQuotes(CharSequence field) {
+    for(int i = 0; i < field.length(); i++) {
+      char c = field.charAt(i);
+      if(c == ',' || c == '"' || c == '\n' || c == '\r') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void append(char c) throws IOException {
+    ensureCapacity(1);
+    buffer[length++] = c;
+  }
+
+  private void endRow() throws IOException {
+    ensureCapacity(lineSeparator.length);
+    for(char c : lineSeparator) {
+      buffer[length++] = c;
+    }
+  }
+
+  /** Makes room for the given number of characters, flushing or growing the buffer */
+  private void ensureCapacity(int needed) throws IOException {
+    if(length + needed > buffer.length) {
+      flushBuffer();
+      if(needed > buffer.length) {
+        buffer = new char[needed];
+      }
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    if(length > 0) {
+      writer.write(buffer, 0, length);
+      length = 0;
+    }
+  }
+
+  /** Writes any buffered rows and closes the underlying writer */
+  public void close() throws IOException {
+    try {
+      flushBuffer();
+    }
+    finally {
+      writer.close();
+    }
+  }
+}
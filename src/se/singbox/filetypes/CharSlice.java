@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.filetypes;
+
+/**
+ * A view of part of a char array, which lets CSVTokenizer hand out fields without
+ * copying them.  The same instance is pointed at a new field for every record, so
+ * a String is only created when toString() is called.
+ */
+class CharSlice implements CharSequence {
+  private char[] chars;
+  private int offset;
+  private int length;
+
+  CharSlice() {
+    reset(new char[0], 0, 0);
+  }
+
+  /**
+   * Points this slice at a part of an array
+   * @param chars Array to read from, which must not be modified while in use
+   * @param offset Index of the first character
+   * @param length Number of characters
+   */
+  void reset(char[] chars, int offset, int length) {
+    this.chars = chars;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  public int length() {
+    return length;
+  }
+
+  public char charAt(int index) {
+    if(index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of " + length);
+    }
+    return chars[offset + index];
+  }
+
+  public CharSequence subSequence(int start, int end) {
+    if(start < 0 || end > length || start > end) {
+      throw new IndexOutOfBoundsException("Range " + start + "-" + end + " out of " + length);
+    }
+    CharSlice slice = new CharSlice();
+    slice.reset(chars, offset + start, end - start);
+    return slice;
+  }
+
+  /**
+   * @param string String to compare with
+   * @return True if this slice contains exactly the characters of the string
+   */
+  boolean contentEquals(String string) {
+    if(string.length() != length) {
+      return false;
+    }
+    for(int i = 0; i < length; i++) {
+      if(chars[offset + i] != string.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public String toString() {
+    return new String(chars, offset, length);
+  }
+}
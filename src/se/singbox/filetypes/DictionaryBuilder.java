@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.filetypes;
+
+import java.io.IOException;
+import java.util.List;
+
+/** Collects the rows given by a LocaleSourceReader into a LocaleStringDictionary */
+class DictionaryBuilder implements LocaleRowHandler {
+  private final LocaleStringDictionary outStrings = new LocaleStringDictionary();
+  private List<String> parsedLocales;
+
+  public void handleHeader(List<String> locales) {
+    parsedLocales = locales;
+    LocaleStringSet localeMap = new LocaleStringSet();
+    for(String locale : locales) {
+      localeMap.put(locale, null);
+    }
+    outStrings.put("LOCALE KEY", localeMap);
+  }
+
+  public void handleRow(String key, List<CharSequence> values) throws IOException {
+    if(values.size() > parsedLocales.size()) {
+      throw new IOException("Key '" + key + "' has more values than there are locales");
+    }
+    LocaleStringSet stringMap = new LocaleStringSet();
+    for(int i = 0; i < values.size(); i++) {
+      if(values.get(i) != null) {
+        stringMap.put(parsedLocales.get(i), values.get(i).toString());
+      }
+    }
+    outStrings.put(key, stringMap);
+  }
+
+  LocaleStringDictionary getDictionary() {
+    return outStrings;
+  }
+}
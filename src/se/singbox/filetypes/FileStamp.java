@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.filetypes;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * The size, modification time and content digest of a file, which together tell
+ * whether the file has changed since the stamp was taken.  A file whose size and
+ * modification time are unchanged is not read again, while a file which was only
+ * touched (eg. by a checkout) is still recognized as unchanged by its digest.
+ */
+public class FileStamp {
+  private static final String DIGEST_ALGORITHM = "MD5";
+
+  private final long size;
+  private final long lastModified;
+  private final byte[] digest;
+
+  public FileStamp(long size, long lastModified, byte[] digest) {
+    this.size = size;
+    this.lastModified = lastModified;
+    this.digest = digest;
+  }
+
+  /**
+   * Takes a stamp of a file's current state
+   * @param file The file
+   * @param previous An earlier stamp of the same file, which is returned as is if the
+   * file's size and modification time are unchanged, or null to always digest the file
+   * @return The file's stamp
+   * @throws IOException If the file could not be read
+   */
+  public static FileStamp of(File file, FileStamp previous) throws IOException {
+    long size = file.length();
+    long lastModified = file.lastModified();
+    if(previous != null && previous.size == size && previous.lastModified == lastModified) {
+      return previous;
+    }
+    return new FileStamp(size, lastModified, digest(file));
+  }
+
+  /**
+   * @param other Another stamp of the same file, or null
+   * @return True if both stamps have the same content, regardless of modification time
+   */
+  public boolean hasSameContent(FileStamp other) {
+    return other != null && size == other.size && Arrays.equals(digest, other.digest);
+  }
+
+  /**
+   * @param inStream Stream positioned at a stamp written by write()
+   * @return The stamp
+   */
+  public static FileStamp read(DataInput inStream) throws IOException {
+    long size = inStream.readLong();
+    long lastModified = inStream.readLong();
+    byte[] digest = new byte[inStream.readUnsignedShort()];
+    inStream.readFully(digest);
+    return new FileStamp(size, lastModified, digest);
+  }
+
+  public void write(DataOutput outStream) throws IOException {
+    outStream.writeLong(size);
+    outStream.writeLong(lastModified);
+    outStream.writeShort(digest.length);
+    outStream.write(digest);
+  }
+
+  /** @return A new digest of the algorithm used for file contents */
+  public static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance(DIGEST_ALGORITHM);
+    }
+    catch(NoSuchAlgorithmException e) {
+      // Every Java platform is required to support MD5
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** @return Digest of the file's contents */
+  public static byte[] digest(File file) throws IOException {
+    MessageDigest digest = createDigest();
+    InputStream inStream = new BufferedInputStream(new FileInputStream(file));
+    try {
+      byte[] buffer = new byte[8192];
+      int numRead;
+      while((numRead = inStream.read(buffer)) > 0) {
+        digest.update(buffer, 0, numRead);
+      }
+    }
+    finally {
+      inStream.close();
+    }
+    return digest.digest();
+  }
+}
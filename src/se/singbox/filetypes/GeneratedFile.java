@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.filetypes;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.util.Arrays;
+
+/**
+ * A generated file which only replaces the existing file if its content changed, so
+ * that the existing file's modification time is kept and incremental builds don't
+ * redo any work for it.  The new content is written to a temporary file next to the
+ * target, which is digested while it is written.  commit() then compares it with the
+ * existing file and either deletes it, or renames it into place in one atomic step,
+ * so readers never see a half-written file.
+ * <p>
+ * Typical use:
+ * <pre>
+ * GeneratedFile output = new GeneratedFile(file);
+ * try {
+ *   Writer writer = new OutputStreamWriter(output.getOutputStream(), "UTF8");
+ *   ...
+ *   writer.close();
+ *   output.commit();
+ * }
+ * finally {
+ *   output.close();
+ * }
+ * </pre>
+ */
+public class GeneratedFile {
+  private final File target;
+  private final File tempFile;
+  private final DigestOutputStream outStream;
+  private long length = 0;
+  private boolean finished = false;
+
+  /**
+   * Creates the temporary file, in the same directory as the target so that it can
+   * be renamed into place.  Its name starts with a dot, so it is hidden from scanners.
+   * @param target File to generate, whose directory must exist
+   * @throws IOException If the temporary file could not be created
+   */
+  public GeneratedFile(File target) throws IOException {
+    this.target = target;
+    this.tempFile = File.createTempFile("." + target.getName() + ".", ".tmp", target.getAbsoluteFile().getParentFile());
+    OutputStream fileStream = new FileOutputStream(tempFile);
+    this.outStream = new DigestOutputStream(new BufferedOutputStream(fileStream) {
+      public void write(int b) throws IOException {
+        super.write(b);
+        length++;
+      }
+
+      public void write(byte[] bytes, int offset, int count) throws IOException {
+        super.write(bytes, offset, count);
+        length += count;
+      }
+    }, FileStamp.createDigest());
+  }
+
+  /** @return Stream to write the new content to, which may be closed by the caller */
+  public OutputStream getOutputStream() {
+    return outStream;
+  }
+
+  public File getTarget() {
+    return target;
+  }
+
+  /**
+   * Replaces the target with the new content, unless the target already has exactly
+   * that content
+   * @return True if the target was written, false if it was left unchanged
+   * @throws IOException If the target could not be read or replaced
+   */
+  public boolean commit() throws IOException {
+    outStream.close();
+    if(target.isFile() && target.length() == length &&
+       Arrays.equals(outStream.getMessageDigest().digest(), FileStamp.digest(target))) {
+      deleteTempFile();
+      finished = true;
+      return false;
+    }
+
+    try {
+      Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch(AtomicMoveNotSupportedException e) {
+      Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    finished = true;
+    return true;
+  }
+
+  /** Deletes the temporary file unless commit() succeeded, eg. after an error */
+  public void close() throws IOException {
+    if(!finished) {
+      finished = true;
+      try {
+        outStream.close();
+      }
+      finally {
+        deleteTempFile();
+      }
+    }
+  }
+
+  private void deleteTempFile() throws IOException {
+    if(tempFile.exists() && !tempFile.delete()) {
+      throw new IOException("Could not remove temporary file '" + tempFile + "'");
+    }
+  }
+}
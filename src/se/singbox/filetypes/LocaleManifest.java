@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.filetypes;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers what a master file (CSV or XLS) looked like when the locale properties
+ * files were last generated from it, so that only the locales whose strings changed
+ * have to be generated again.  The manifest holds the master file's FileStamp, which
+ * tells whether anything changed at all without parsing it, and a digest of each
+ * locale's column, ie. of every key and string of that locale in row order, which is
+ * exactly what its properties file is generated from.  A manifest written with
+ * different settings is ignored.
+ */
+public class LocaleManifest extends PersistentFile {
+  private static final int MANIFEST_MAGIC = 0x4c31304d;
+  /** Bump this whenever the file format or the way columns are digested changes */
+  private static final int MANIFEST_VERSION = 1;
+
+  private FileStamp masterStamp = null;
+  /** Digest of each locale's column, in the order of the master file */
+  private Map<String, byte[]> columnDigests = new LinkedHashMap<String, byte[]>();
+
+  /**
+   * @param manifestFile File to store the manifest in
+   * @param settings Anything else which affects the generated files, eg. their names.
+   * A manifest written with other settings is discarded.
+   */
+  public LocaleManifest(File manifestFile, String settings) {
+    super(manifestFile, MANIFEST_MAGIC, MANIFEST_VERSION, settings);
+  }
+
+  protected void readContent(DataInputStream inStream) throws IOException {
+    masterStamp = FileStamp.read(inStream);
+    int numLocales = inStream.readInt();
+    for(int i = 0; i < numLocales; i++) {
+      String locale = inStream.readUTF();
+      byte[] digest = new byte[inStream.readUnsignedShort()];
+      inStream.readFully(digest);
+      columnDigests.put(locale, digest);
+    }
+  }
+
+  /**
+   * Writes the manifest.  This should only be saved once all changed properties files
+   * have been written, so that a failed build is retried by the next one.
+   */
+  protected void writeContent(DataOutputStream outStream) throws IOException {
+    masterStamp.write(outStream);
+    outStream.writeInt(columnDigests.size());
+    for(Map.Entry<String, byte[]> column : columnDigests.entrySet()) {
+      outStream.writeUTF(column.getKey());
+      outStream.writeShort(column.getValue().length);
+      outStream.write(column.getValue());
+    }
+  }
+
+  protected void clearContent() {
+    masterStamp = null;
+    columnDigests.clear();
+  }
+
+  /**
+   * Checks whether the master file is the same as when the manifest was saved, and
+   * remembers its current state for save().  The file is only digested if its size or
+   * modification time changed.
+   * @param masterFile The master CSV or XLS file
+   * @return True if the file's content is unchanged
+   * @throws IOException If the file could not be read
+   */
+  public boolean updateMaster(File masterFile) throws IOException {
+    FileStamp stamp = FileStamp.of(masterFile, masterStamp);
+    boolean unchanged = stamp.hasSameContent(masterStamp);
+    masterStamp = stamp;
+    return unchanged;
+  }
+
+  /** @return The locales of the master file when the manifest was saved */
+  public Set<String> getLocales() {
+    return columnDigests.keySet();
+  }
+
+  /**
+   * Replaces the column digests with those of the current master file
+   * @param digester Digester which has been given every row of the master file
+   * @return The locales whose column changed, or which are new
+   */
+  public Set<String> updateColumns(ColumnDigester digester) {
+    Map<String, byte[]> newDigests = digester.getDigests();
+    Set<String> changedLocales = new LinkedHashSet<String>();
+    for(Map.Entry<String, byte[]> column : newDigests.entrySet()) {
+      byte[] oldDigest = columnDigests.get(column.getKey());
+      if(oldDigest == null || !Arrays.equals(oldDigest, column.getValue())) {
+        changedLocales.add(column.getKey());
+      }
+    }
+    columnDigests = newDigests;
+    return changedLocales;
+  }
+
+  /**
+   * Digests each locale's column of a master file, given the rows by any reader.  A
+   * column's digest covers the key and string of every row which has a string for
+   * that locale, in row order.  Missing strings, given as null or by a row with fewer
+   * values than locales, are left out, just like they are left out of the properties
+   * files.
+   */
+  public static class ColumnDigester implements LocaleRowHandler {
+    private final List<String> locales = new ArrayList<String>();
+    private final List<MessageDigest> digests = new ArrayList<MessageDigest>();
+    /** Reused to pass characters to the digests */
+    private byte[] bytes = new byte[256];
+    private int numRows = 0;
+
+    public void handleHeader(List<String> locales) {
+      this.locales.addAll(locales);
+      for(int i = 0; i < locales.size(); i++) {
+        digests.add(FileStamp.createDigest());
+      }
+    }
+
+    public void handleRow(String key, List<CharSequence> values) {
+      int keyLength = toBytes(key, 0);
+      for(int i = 0; i < values.size() && i < digests.size(); i++) {
+        CharSequence value = values.get(i);
+        if(value != null) {
+          // Key and value are each followed by a separator, so that "ab" + "c" differs
+          // from "a" + "bc".  The key stays at the start of the buffer for every locale.
+          int length = toBytes(value, keyLength + 2);
+          bytes[keyLength] = 0;
+          bytes[keyLength + 1] = 0;
+          digests.get(i).update(bytes, 0, length);
+          digests.get(i).update(bytes, keyLength, 2);
+        }
+      }
+      numRows++;
+    }
+
+    /**
+     * Stores the characters as UTF-16 in the byte buffer
+     * @return The end of the characters in the buffer
+     */
+    private int toBytes(CharSequence chars, int offset) {
+      int end = offset + chars.length() * 2;
+      if(bytes.length < end + 2) {
+        bytes = Arrays.copyOf(bytes, (end + 2) * 2);
+      }
+      int position = offset;
+      for(int i = 0; i < chars.length(); i++) {
+        char c = chars.charAt(i);
+        bytes[position++] = (byte)(c >> 8);
+        bytes[position++] = (byte)c;
+      }
+      return end;
+    }
+
+    public int getNumRows() {
+      return numRows;
+    }
+
+    /** @return The digest of each locale's column, in the order of the header */
+    public Map<String, byte[]> getDigests() {
+      Map<String, byte[]> columnDigests = new LinkedHashMap<String, byte[]>();
+      for(int i = 0; i < locales.size(); i++) {
+        columnDigests.put(locales.get(i), digests.get(i).digest());
+      }
+      return columnDigests;
+    }
+  }
+}
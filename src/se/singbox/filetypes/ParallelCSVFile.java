@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.filetypes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Reads large CSV files on several threads.  The file is memory-mapped and split into
+ * chunks of about the same size, which end at line breaks outside of quoted fields.
+ * As quotation marks, commas and line breaks never occur inside multi-byte UTF-8
+ * sequences, the quote state at any byte is given by the number of quotation marks
+ * before it, which is counted for all chunks in parallel.  The chunks are then decoded
+ * and parsed on a fork-join pool, and passed to the handler in the original row order,
+ * so the result is exactly the same as reading the file with CSVFile.
+ * <p>
+ * Quotation marks inside unquoted fields would upset the counting, so if a chunk finds
+ * any (or a quoted field which is never closed), the rest of the file is read serially
+ * starting from that chunk.  Small files, and files too large to map in one piece, are
+ * always read serially.
+ */
+public class ParallelCSVFile extends CSVFile {
+  /** Default size of each chunk, in bytes */
+  public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final int numThreads;
+  private final int chunkSize;
+
+  /**
+   * @param numThreads Number of threads to parse with, must be at least 1
+   */
+  public ParallelCSVFile(int numThreads) {
+    this(numThreads, DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * @param numThreads Number of threads to parse with, must be at least 1
+   * @param chunkSize Approximate size of each chunk, in bytes
+   */
+  public ParallelCSVFile(int numThreads, int chunkSize) {
+    if(numThreads < 1) {
+      throw new IllegalArgumentException("Number of threads must be at least 1");
+    }
+    else if(chunkSize < 1) {
+      throw new IllegalArgumentException("Chunk size must be at least 1");
+    }
+    this.numThreads = numThreads;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Reads the file in parallel chunks, passing the rows to the handler in file order
+   * from the calling thread
+   * @param filename CSV file to read
+   * @param handler Receives the locale names and then each row
+   * @throws IOException If the file could not be read or is malformed
+   */
+  public void read(String filename, LocaleRowHandler handler) throws IOException {
+    long fileSize = new File(filename).length();
+    if(numThreads == 1 || fileSize < 2L * chunkSize || fileSize > Integer.MAX_VALUE) {
+      super.read(filename, handler);
+      return;
+    }
+
+    RandomAccessFile file = new RandomAccessFile(filename, "r");
+    ForkJoinPool pool = new ForkJoinPool(numThreads);
+    try {
+      FileChannel channel = file.getChannel();
+      MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+      int[] boundaries = findChunkBoundaries(bytes, pool);
+
+      // Only a few chunks are parsed ahead of the handler, so memory use stays bounded
+      int maxChunksAhead = numThreads * 2;
+      Deque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+      int nextChunk = 0;
+      int linesRead = 0;
+      try {
+        while(nextChunk < boundaries.length - 1 || !pending.isEmpty()) {
+          while(nextChunk < boundaries.length - 1 && pending.size() < maxChunksAhead) {
+            pending.add(pool.submit(new ChunkParser(bytes, nextChunk, boundaries[nextChunk], boundaries[nextChunk + 1])));
+            nextChunk++;
+          }
+
+          Chunk chunk = waitFor(pending.poll());
+          if(chunk.irregular) {
+            readSerially(channel, chunk.start, chunk.index == 0, linesRead, handler);
+            return;
+          }
+          chunk.deliver(handler);
+          linesRead += chunk.numLines;
+        }
+      }
+      finally {
+        for(Future<Chunk> future : pending) {
+          future.cancel(true);
+        }
+      }
+    }
+    finally {
+      pool.shutdownNow();
+      file.close();
+    }
+  }
+
+  /**
+   * Splits the file into chunks which start at the beginning of a record
+   * @return Offsets of the start of each chunk, followed by the size of the file
+   */
+  private int[] findChunkBoundaries(final ByteBuffer bytes, ForkJoinPool pool) throws IOException {
+    final int size = bytes.limit();
+    int numRanges = (int)((size + (long)chunkSize - 1) / chunkSize);
+
+    // First count the quotation marks in each range of chunkSize bytes
+    List<Future<Integer>> counts = new ArrayList<Future<Integer>>(numRanges);
+    for(int i = 0; i < numRanges; i++) {
+      final int start = i * chunkSize;
+      final int end = (int)Math.min((long)start + chunkSize, size);
+      counts.add(pool.submit(new Callable<Integer>() {
+        public Integer call() {
+          int numQuotes = 0;
+          for(int j = start; j < end; j++) {
+            if(bytes.get(j) == '"') {
+              numQuotes++;
+            }
+          }
+          return numQuotes;
+        }
+      }));
+    }
+
+    // Then move the start of each range forward to the first line break outside of quotes
+    List<Future<Integer>> starts = new ArrayList<Future<Integer>>(numRanges);
+    boolean inQuotes = false;
+    for(int i = 0; i < numRanges; i++) {
+      final int start = i * chunkSize;
+      final boolean startsInQuotes = inQuotes;
+      starts.add(i == 0 ? null : pool.submit(new Callable<Integer>() {
+        public Integer call() {
+          boolean quoted = startsInQuotes;
+          for(int j = start; j < size; j++) {
+            byte b = bytes.get(j);
+            if(b == '"') {
+              quoted = !quoted;
+            }
+            else if(b == '\n' && !quoted) {
+              return j + 1;
+            }
+          }
+          return size;
+        }
+      }));
+      inQuotes ^= (waitFor(counts.get(i)) & 1) != 0;
+    }
+
+    int[] boundaries = new int[numRanges + 1];
+    int numBoundaries = 1;
+    for(int i = 1; i < numRanges; i++) {
+      int start = waitFor(starts.get(i));
+      // A long quoted field may swallow whole ranges, which then have no chunk of their own
+      if(start > boundaries[numBoundaries - 1] && start < size) {
+        boundaries[numBoundaries++] = start;
+      }
+    }
+    boundaries[numBoundaries++] = size;
+    return Arrays.copyOf(boundaries, numBoundaries);
+  }
+
+  /** Reads the file with a single tokenizer, starting at the beginning of a record */
+  private static void readSerially(FileChannel channel, int start, boolean startOfFile, int linesRead,
+                                   LocaleRowHandler handler) throws IOException {
+    channel.position(start);
+    // The channel is closed together with its file by read()
+    CSVTokenizer tokenizer = new CSVTokenizer(new InputStreamReader(Channels.newInputStream(channel), "UTF8"));
+    tokenizer.setStartOfInput(startOfFile, linesRead);
+    if(startOfFile) {
+      readHeader(tokenizer, handler);
+    }
+    readRows(tokenizer, handler);
+  }
+
+  private static <T> T waitFor(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while parsing CSV file");
+    }
+    catch(ExecutionException e) {
+      Throwable cause = e.getCause();
+      if(cause instanceof IOException) {
+        throw (IOException)cause;
+      }
+      else if(cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      }
+      else if(cause instanceof Error) {
+        throw (Error)cause;
+      }
+      throw new IOException(cause.toString());
+    }
+  }
+
+  /** Decodes and tokenizes one chunk */
+  private static class ChunkParser implements Callable<Chunk> {
+    private final ByteBuffer bytes;
+    private final int index;
+    private final int start;
+    private final int end;
+
+    ChunkParser(ByteBuffer bytes, int index, int start, int end) {
+      this.bytes = bytes;
+      this.index = index;
+      this.start = start;
+      this.end = end;
+    }
+
+    public Chunk call() {
+      ByteBuffer chunkBytes = bytes.duplicate();
+      chunkBytes.limit(end);
+      chunkBytes.position(start);
+      // Malformed input is replaced, just like InputStreamReader does
+      CharsetDecoder decoder = UTF8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      CharBuffer chars;
+      try {
+        chars = decoder.decode(chunkBytes);
+      }
+      catch(IOException e) {
+        // Can't happen when replacing errors
+        throw new IllegalStateException(e);
+      }
+
+      CSVTokenizer tokenizer = new CSVTokenizer(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+      tokenizer.setStartOfInput(index == 0, 0);
+      Chunk chunk = new Chunk(index, start, chars.array());
+      try {
+        if(index == 0) {
+          if(!tokenizer.nextRecord() || !tokenizer.fieldEquals(0, "LOCALE KEY")) {
+            // Reading serially reports the error
+            chunk.irregular = true;
+            return chunk;
+          }
+          chunk.setHeader(tokenizer);
+        }
+        while(tokenizer.nextRecord()) {
+          if(!tokenizer.isBlankLine()) {
+            chunk.addRecord(tokenizer);
+          }
+        }
+      }
+      catch(IOException e) {
+        // A quoted field is never closed
+        chunk.irregular = true;
+      }
+      chunk.irregular |= tokenizer.hasIrregularQuotes();
+      chunk.numLines = tokenizer.getLinesRead();
+      return chunk;
+    }
+  }
+
+  /**
+   * The records of a parsed chunk, kept as offsets into its decoded characters so
+   * that no strings are created until the rows are passed to the handler
+   */
+  private static class Chunk {
+    private final int index;
+    private final int start;
+    private final char[] chars;
+    private List<String> header = null;
+    /** For each record, the number of fields followed by the start and end of each field */
+    private int[] records = new int[1024];
+    private int recordsLength = 0;
+    private int numLines = 0;
+    private boolean irregular = false;
+
+    Chunk(int index, int start, char[] chars) {
+      this.index = index;
+      this.start = start;
+      this.chars = chars;
+    }
+
+    void setHeader(CSVTokenizer tokenizer) {
+      header = new ArrayList<String>();
+      for(int i = 1; i < tokenizer.getNumFields(); i++) {
+        header.add(tokenizer.getString(i));
+      }
+    }
+
+    void addRecord(CSVTokenizer tokenizer) {
+      int numFields = tokenizer.getNumFields();
+      int needed = recordsLength + 1 + numFields * 2;
+      if(needed > records.length) {
+        records = Arrays.copyOf(records, Math.max(needed, records.length * 2));
+      }
+      records[recordsLength++] = numFields;
+      for(int i = 0; i < numFields; i++) {
+        records[recordsLength++] = tokenizer.getFieldStart(i);
+        records[recordsLength++] = tokenizer.getFieldEnd(i);
+      }
+    }
+
+    void deliver(LocaleRowHandler handler) throws IOException {
+      if(header != null) {
+        handler.handleHeader(header);
+      }
+      List<CharSequence> values = new ArrayList<CharSequence>();
+      List<CharSlice> slices = new ArrayList<CharSlice>();
+      int i = 0;
+      while(i < recordsLength) {
+        int numFields = records[i++];
+        String key = new String(chars, records[i], records[i + 1] - records[i]);
+        i += 2;
+        values.clear();
+        for(int j = 1; j < numFields; j++) {
+          if(slices.size() < j) {
+            slices.add(new CharSlice());
+          }
+          CharSlice slice = slices.get(j - 1);
+          slice.reset(chars, records[i], records[i + 1] - records[i]);
+          values.add(slice);
+          i += 2;
+        }
+        handler.handleRow(key, values);
+      }
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.filetypes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Base class for binary files which one build writes for later builds to read, eg.
+ * ScanCache.  The file starts with a header of a magic number, a format version and
+ * the settings which the content depends on.  A missing or truncated file, or one
+ * with any other header, is not an error: it is ignored, so that the content is
+ * simply built again.  Files are saved through a GeneratedFile, so an interrupted
+ * build leaves the previous file in place.
+ */
+public abstract class PersistentFile {
+  private final File file;
+  private final int magic;
+  private final int version;
+  private String settings;
+
+  /**
+   * @param file File to store the content in
+   * @param magic Number which every file of this type starts with
+   * @param version Format version, which should be bumped whenever the format or the
+   * meaning of the content changes
+   * @param settings Anything else the content depends on.  A file written with other
+   * settings is ignored.  May be null when only loading, to accept a file written with
+   * any settings, see getSettings().
+   */
+  protected PersistentFile(File file, int magic, int version, String settings) {
+    this.file = file;
+    this.magic = magic;
+    this.version = version;
+    this.settings = settings;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /** @return The settings given to the constructor, or those of the loaded file if none were given */
+  public String getSettings() {
+    return settings;
+  }
+
+  /**
+   * Reads the file from disk
+   * @return True if a valid file was read
+   * @throws IOException If the file exists but could not be read
+   */
+  public boolean load() throws IOException {
+    clearContent();
+    if(!file.isFile()) {
+      return false;
+    }
+
+    DataInputStream inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if(inStream.readInt() != magic || inStream.readInt() != version) {
+        return false;
+      }
+      String fileSettings = inStream.readUTF();
+      if(settings != null && !settings.equals(fileSettings)) {
+        return false;
+      }
+      settings = fileSettings;
+      readContent(inStream);
+      return true;
+    }
+    catch(EOFException e) {
+      // Truncated file, eg. written by a release which did not save atomically
+      clearContent();
+      return false;
+    }
+    finally {
+      inStream.close();
+    }
+  }
+
+  /**
+   * Writes the file to disk, replacing the old file unless it has exactly the same content
+   * @throws IOException If the file could not be written
+   */
+  public void save() throws IOException {
+    File parentDir = file.getAbsoluteFile().getParentFile();
+    if(parentDir != null && !parentDir.exists() && !parentDir.mkdirs()) {
+      throw new IOException("Could not create directory '" + parentDir + "'");
+    }
+
+    GeneratedFile output = new GeneratedFile(file);
+    try {
+      DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(output.getOutputStream(), 65536));
+      outStream.writeInt(magic);
+      outStream.writeInt(version);
+      outStream.writeUTF(settings);
+      writeContent(outStream);
+      outStream.close();
+      output.commit();
+    }
+    finally {
+      output.close();
+    }
+  }
+
+  /**
+   * Reads everything after the header
+   * @param inStream Stream positioned after the header
+   * @throws java.io.EOFException If the file is truncated
+   */
+  protected abstract void readContent(DataInputStream inStream) throws IOException;
+
+  /**
+   * Writes everything after the header
+   * @param outStream Stream positioned after the header
+   */
+  protected abstract void writeContent(DataOutputStream outStream) throws IOException;
+
+  /** Forgets any content, called before loading and after reading a truncated file */
+  protected abstract void clearContent();
+}
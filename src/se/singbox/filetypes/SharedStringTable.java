@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.filetypes;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The shared strings of an XLSX workbook, which cells refer to by index.  Strings are
+ * kept UTF-8 encoded, and once they outgrow MAX_IN_MEMORY they are moved to a temporary
+ * file which is memory-mapped for reading, so the heap only holds the strings' offsets.
+ * Add all strings first, then call seal() before getting any.
+ */
+class SharedStringTable {
+  /** Size of the encoded strings above which they are kept in a temporary file */
+  private static final int MAX_IN_MEMORY = 16 * 1024 * 1024;
+  /** Size of each mapped part of the temporary file */
+  private static final long MAPPED_WINDOW = 1L << 30;
+  private static final int MAX_PRESIZED_STRINGS = 16 * 1024 * 1024;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private byte[] bytes = new byte[65536];
+  private long length = 0;
+  /** Start of each string, followed by the end of the last one */
+  private long[] offsets = new long[1024];
+  private int numStrings = 0;
+
+  private File tempFile = null;
+  private OutputStream tempStream = null;
+  private RandomAccessFile tempInput = null;
+  private MappedByteBuffer[] windows = null;
+
+  void add(String string) throws IOException {
+    byte[] encoded = string.getBytes(UTF8);
+    if(tempStream != null) {
+      tempStream.write(encoded);
+    }
+    else if(length + encoded.length > MAX_IN_MEMORY) {
+      tempFile = File.createTempFile("sharedStrings", ".tmp");
+      tempStream = new BufferedOutputStream(new FileOutputStream(tempFile), 65536);
+      tempStream.write(bytes, 0, (int)length);
+      tempStream.write(encoded);
+      bytes = null;
+    }
+    else {
+      if(length + encoded.length > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, (int)length + encoded.length));
+      }
+      System.arraycopy(encoded, 0, bytes, (int)length, encoded.length);
+    }
+
+    if(numStrings + 1 >= offsets.length) {
+      offsets = Arrays.copyOf(offsets, offsets.length * 2);
+    }
+    offsets[numStrings++] = length;
+    length += encoded.length;
+    offsets[numStrings] = length;
+  }
+
+  /** Finishes adding strings */
+  void seal() throws IOException {
+    if(tempStream == null) {
+      return;
+    }
+    tempStream.close();
+    tempStream = null;
+    tempInput = new RandomAccessFile(tempFile, "r");
+    FileChannel channel = tempInput.getChannel();
+    windows = new MappedByteBuffer[(int)((length + MAPPED_WINDOW - 1) / MAPPED_WINDOW)];
+    for(int i = 0; i < windows.length; i++) {
+      long start = i * MAPPED_WINDOW;
+      windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAPPED_WINDOW, length - start));
+    }
+  }
+
+  /**
+   * Avoids growing the offsets while adding, if the number of strings is known
+   * @param numStrings Expected number of strings, as claimed by the file and thus capped
+   */
+  void ensureCapacity(int numStrings) {
+    numStrings = Math.min(numStrings, MAX_PRESIZED_STRINGS);
+    if(numStrings + 1 > offsets.length) {
+      offsets = Arrays.copyOf(offsets, numStrings + 1);
+    }
+  }
+
+  int size() {
+    return numStrings;
+  }
+
+  /**
+   * @param index Index of the string, in the order they were added
+   * @throws IOException If the index is out of range
+   */
+  String get(int index) throws IOException {
+    if(index < 0 || index >= numStrings) {
+      throw new IOException("Shared string " + index + " does not exist");
+    }
+    long start = offsets[index];
+    int stringLength = (int)(offsets[index + 1] - start);
+    if(windows == null) {
+      return new String(bytes, (int)start, stringLength, UTF8);
+    }
+
+    byte[] encoded = new byte[stringLength];
+    MappedByteBuffer window = windows[(int)(start / MAPPED_WINDOW)];
+    int position = (int)(start % MAPPED_WINDOW);
+    if(position + stringLength <= window.limit()) {
+      window.position(position);
+      window.get(encoded);
+    }
+    else {
+      // The string crosses into the next window
+      ByteBuffer buffer = ByteBuffer.wrap(encoded);
+      while(buffer.hasRemaining()) {
+        if(tempInput.getChannel().read(buffer, start + buffer.position()) < 0) {
+          throw new IOException("Unexpected end of " + tempFile);
+        }
+      }
+    }
+    return new String(encoded, UTF8);
+  }
+
+  /** Deletes the temporary file, if any */
+  void close() throws IOException {
+    if(tempStream != null) {
+      tempStream.close();
+    }
+    if(tempInput != null) {
+      tempInput.close();
+    }
+    windows = null;
+    // A mapped file can't be deleted on all platforms until it has been unmapped
+    if(tempFile != null && !tempFile.delete()) {
+      tempFile.deleteOnExit();
+    }
+  }
+}
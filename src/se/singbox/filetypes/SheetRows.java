@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.filetypes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns the cells of a spreadsheet's first sheet into the rows of a LocaleRowHandler.
+ * The first row must start with "LOCALE KEY" and name the locales, rows without a key
+ * are skipped, and empty cells are passed as null values.  Used by the spreadsheet
+ * readers, which give the cells in row order.
+ */
+class SheetRows {
+  private final String shortFilename;
+  private final LocaleRowHandler handler;
+  private List<String> parsedLocales = null;
+  /** Index of the row whose cells are being collected, or -1 before the first cell */
+  private int rowIndex = -1;
+  private final List<String> rowCells = new ArrayList<String>();
+  private final List<CharSequence> rowValues = new ArrayList<CharSequence>();
+
+  /**
+   * @param shortFilename Name of the spreadsheet, used in error messages
+   * @param handler Receives the locale names and then each row
+   */
+  SheetRows(String shortFilename, LocaleRowHandler handler) {
+    this.shortFilename = shortFilename;
+    this.handler = handler;
+  }
+
+  /**
+   * Adds a cell to the current row, passing the previous row to the handler if the cell
+   * belongs to a later row
+   * @param row Index of the cell's row, starting from 0
+   * @param column Index of the cell's column, starting from 0
+   * @param value The cell's text, or null or empty if it has none
+   */
+  void addCell(int row, int column, String value) throws IOException {
+    if(row != rowIndex) {
+      endRow();
+      rowIndex = row;
+    }
+    while(rowCells.size() <= column) {
+      rowCells.add(null);
+    }
+    rowCells.set(column, value);
+  }
+
+  /** Passes the collected row to the handler */
+  void endRow() throws IOException {
+    if(rowIndex < 0 || rowCells.isEmpty()) {
+      return;
+    }
+    if(parsedLocales == null) {
+      readHeader();
+    }
+    else {
+      readRow();
+    }
+    rowCells.clear();
+  }
+
+  private void readHeader() throws IOException {
+    if(rowIndex != 0 || !"LOCALE KEY".equals(rowCells.get(0))) {
+      throw new IOException(shortFilename + ": malformed spreadsheet; needs 'LOCALE KEY' as first cell");
+    }
+    parsedLocales = new ArrayList<String>();
+    for(int i = 1; i < rowCells.size(); i++) {
+      String locale = rowCells.get(i);
+      if(locale == null || locale.isEmpty()) {
+        break;
+      }
+      parsedLocales.add(locale);
+    }
+    handler.handleHeader(parsedLocales);
+  }
+
+  private void readRow() throws IOException {
+    String key = rowCells.get(0);
+    // Skip empty rows
+    if(key == null || key.isEmpty()) {
+      return;
+    }
+    rowValues.clear();
+    for(int i = 1; i < rowCells.size(); i++) {
+      String value = rowCells.get(i);
+      if(value == null || value.isEmpty()) {
+        rowValues.add(null);
+      }
+      else if(i > parsedLocales.size()) {
+        throw new IOException("Key '" + key + "' has more values than there are locales");
+      }
+      else {
+        rowValues.add(value);
+      }
+    }
+    // Trailing empty cells are left out
+    while(!rowValues.isEmpty() && rowValues.get(rowValues.size() - 1) == null) {
+      rowValues.remove(rowValues.size() - 1);
+    }
+    handler.handleRow(key, rowValues);
+  }
+
+  /**
+   * Called once the whole sheet has been read
+   * @throws IOException If the sheet had no header
+   */
+  void finish() throws IOException {
+    endRow();
+    if(parsedLocales == null) {
+      throw new IOException(shortFilename + ": malformed spreadsheet; needs 'LOCALE KEY' as first cell");
+    }
+  }
+}
@@ -28,84 +28,189 @@
 
 package se.singbox.filetypes;
 
-import org.apache.poi.hssf.usermodel.HSSFCell;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
+import org.apache.poi.hssf.eventusermodel.EventWorkbookBuilder;
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.eventusermodel.HSSFUserException;
+import org.apache.poi.hssf.model.HSSFFormulaParser;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.DateWindow1904Record;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.formula.eval.ErrorEval;
+import org.apache.poi.hssf.usermodel.HSSFDateUtil;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
+import java.text.SimpleDateFormat;
 
-public class XLSFile implements LocaleSourceFile {
+/**
+ * Reads the first sheet of an Excel spreadsheet with POI's event API, which passes the
+ * workbook's records one at a time instead of building an HSSFWorkbook, so only the
+ * shared string table and the current row are held in memory.  Cells are converted to
+ * strings like HSSFCell.toString() does.
+ */
+public class XLSFile implements LocaleSourceFile, LocaleSourceReader {
   public LocaleStringDictionary read(String filename) throws IOException {
-    LocaleStringDictionary outStrings = new LocaleStringDictionary();
-    InputStream xlsInputStream = new FileInputStream(filename);
-    HSSFWorkbook xlsWorkbook = new HSSFWorkbook(xlsInputStream);
-    HSSFSheet xlsSheet = xlsWorkbook.getSheetAt(0);
+    DictionaryBuilder builder = new DictionaryBuilder();
+    read(filename, builder);
+    return builder.getDictionary();
+  }
+
+  /**
+   * Reads the first sheet one row at a time.  Rows without a key are skipped, and empty
+   * cells are passed as null values.  The other sheets are never parsed.
+   * @param filename Excel spreadsheet to read
+   * @param handler Receives the locale names and then each row
+   * @throws IOException If the file could not be read or is malformed
+   */
+  public void read(String filename, LocaleRowHandler handler) throws IOException {
+    SheetReader reader = new SheetReader(new File(filename).getName(), handler);
+    InputStream inStream = new BufferedInputStream(new FileInputStream(filename));
+    try {
+      HSSFRequest request = new HSSFRequest();
+      request.addListenerForAllRecords(reader);
+      new HSSFEventFactory().abortableProcessWorkbookEvents(request, new POIFSFileSystem(inStream));
+    }
+    catch(HSSFUserException e) {
+      if(e.getReason() instanceof IOException) {
+        throw (IOException)e.getReason();
+      }
+      throw new IOException(e);
+    }
+    finally {
+      inStream.close();
+    }
+    reader.finish();
+  }
+
+  public boolean write(String filename, LocaleStringDictionary inStrings) throws IOException {
+    throw new IOException("Writing XLS files is not supported, write an XLSX file with XLSXFile instead");
+  }
+
+  /**
+   * Passes the cells of the first sheet to SheetRows, converted to strings
+   */
+  private static class SheetReader extends AbortableHSSFListener {
+    private final SheetRows rows;
+    /** Needed to turn formulas back into text, as HSSFCell.toString() does */
+    private final EventWorkbookBuilder.SheetRecordCollectingListener workbookBuilder;
+    /** Needed to tell dates from other numbers */
+    private final FormatTrackingHSSFListener formatTracker;
+    private SSTRecord sharedStrings = null;
+    private boolean uses1904Dates = false;
+    private SimpleDateFormat dateFormat = null;
+    private boolean inFirstSheet = false;
+    private boolean sheetDone = false;
 
-    // Read the first row and extract the locale names
-    HSSFRow firstRow = xlsSheet.getRow(0);
-    HSSFCell firstRowCell = firstRow.getCell(0);
-    if(firstRowCell == null || !firstRowCell.toString().equals("LOCALE KEY")) {
-      throw new IOException("Malformed XLS file; needs 'LOCALE KEY' as first cell");
+    SheetReader(String shortFilename, LocaleRowHandler handler) {
+      this.rows = new SheetRows(shortFilename, handler);
+      this.workbookBuilder = new EventWorkbookBuilder.SheetRecordCollectingListener(null);
+      this.formatTracker = new FormatTrackingHSSFListener(null);
     }
 
-    List<String> parsedLocales = new ArrayList<String>();
-    for(int i = 1; i < firstRow.getLastCellNum(); i++) {
-      firstRowCell = firstRow.getCell(i);
-      if(firstRowCell == null || firstRowCell.toString().isEmpty()) {
-        break;
+    public short abortableProcessRecord(Record record) throws HSSFUserException {
+      try {
+        return processSheetRecord(record);
       }
-      else {
-        parsedLocales.add(firstRowCell.toString());
+      catch(IOException e) {
+        throw new HSSFUserException(e);
       }
     }
 
-    File tempFilename = new File(filename);
-    String shortFilename = tempFilename.getName();
-    LocaleStringSet localeMap = new LocaleStringSet();
-    for(String localeName : parsedLocales) {
-      System.out.println(shortFilename + ": found locale '" + localeName + "'");
-      localeMap.put(localeName, null);
-    }
-    outStrings.put("LOCALE KEY", localeMap);
+    /** @return Non-zero to stop reading the workbook, once the first sheet is done */
+    private short processSheetRecord(Record record) throws IOException {
+      workbookBuilder.processRecordInternally(record);
+      formatTracker.processRecordInternally(record);
 
-    // Now parse the rest of the spreadsheet
-    int numKeysFound = 0;
-    for(int i = 1; i <= xlsSheet.getLastRowNum(); i++) {
-      HSSFRow xlsRow = xlsSheet.getRow(i);
-      HSSFCell keyCell = xlsRow.getCell(0);
-      // System.out.println("Parsed: " + keyCell.toString());
-      // Skip empty rows
-      if(keyCell != null && !keyCell.toString().isEmpty()) {
-        LocaleStringSet stringMap = new LocaleStringSet();
-        for(int j = 1; j <= xlsRow.getLastCellNum(); j++) {
-          HSSFCell xlsCell = xlsRow.getCell(j);
-          if(xlsCell == null || xlsCell.toString().isEmpty()) {
-            if(j < parsedLocales.size()) {
-              System.err.println("WARNING: Missing string for key '" + keyCell.toString() +
-                "' for locale '" + parsedLocales.get(j - 1) + "'");
-              System.err.println("on line " + i + "," + j);
-            }
+      switch(record.getSid()) {
+        case SSTRecord.sid:
+          sharedStrings = (SSTRecord)record;
+          break;
+        case DateWindow1904Record.sid:
+          uses1904Dates = ((DateWindow1904Record)record).getWindowing() == 1;
+          break;
+        case BOFRecord.sid:
+          if(((BOFRecord)record).getType() == BOFRecord.TYPE_WORKSHEET) {
+            inFirstSheet = true;
+          }
+          break;
+        case EOFRecord.sid:
+          if(inFirstSheet) {
+            sheetDone = true;
+            return 1;
+          }
+          break;
+        case LabelSSTRecord.sid:
+          LabelSSTRecord labelSST = (LabelSSTRecord)record;
+          addCell(labelSST, sharedStrings.getString(labelSST.getSSTIndex()).getString());
+          break;
+        case LabelRecord.sid:
+          addCell((LabelRecord)record, ((LabelRecord)record).getValue());
+          break;
+        case NumberRecord.sid:
+          addCell((NumberRecord)record, formatNumber((NumberRecord)record, ((NumberRecord)record).getValue()));
+          break;
+        case BoolErrRecord.sid:
+          BoolErrRecord boolErr = (BoolErrRecord)record;
+          if(boolErr.isBoolean()) {
+            addCell(boolErr, boolErr.getBooleanValue() ? "TRUE" : "FALSE");
           }
           else {
-            stringMap.put(parsedLocales.get(j - 1), xlsCell.toString());
-            numKeysFound++;
+            addCell(boolErr, ErrorEval.getText(boolErr.getErrorValue()));
           }
+          break;
+        case FormulaRecord.sid:
+          FormulaRecord formula = (FormulaRecord)record;
+          addCell(formula, HSSFFormulaParser.toFormulaString(workbookBuilder.getStubHSSFWorkbook(),
+            formula.getParsedExpression()));
+          break;
+        default:
+          break;
+      }
+      return 0;
+    }
+
+    /** Formats a number like HSSFCell.toString(), ie. dates as dd-MMM-yyyy */
+    private String formatNumber(CellValueRecordInterface cell, double value) {
+      if(HSSFDateUtil.isValidExcelDate(value) &&
+        HSSFDateUtil.isADateFormat(formatTracker.getFormatIndex(cell), formatTracker.getFormatString(cell))) {
+        if(dateFormat == null) {
+          dateFormat = new SimpleDateFormat("dd-MMM-yyyy");
         }
-        outStrings.put(keyCell.toString(), stringMap);
+        return dateFormat.format(HSSFDateUtil.getJavaDate(value, uses1904Dates));
       }
+      return String.valueOf(value);
     }
 
-    System.out.println(shortFilename + ": found " + numKeysFound + " locale strings");
-    return outStrings;
-  }
+    private void addCell(CellValueRecordInterface cell, String value) throws IOException {
+      if(inFirstSheet) {
+        rows.addCell(cell.getRow(), cell.getColumn(), value);
+      }
+    }
 
-  public boolean write(String filename, LocaleStringDictionary inStrings) throws IOException {
-    throw new IOException("Writing XLS files not yet supported");
+    /**
+     * Called once the workbook has been read
+     * @throws IOException If the first sheet was missing or had no header
+     */
+    void finish() throws IOException {
+      if(!sheetDone) {
+        throw new IOException("Malformed XLS file; could not find the first sheet");
+      }
+      rows.finish();
+    }
   }
 }
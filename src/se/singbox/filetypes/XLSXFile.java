@@ -0,0 +1,537 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.filetypes;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads the first sheet of an Excel 2007 (.xlsx) spreadsheet using only the JDK's zip and
+ * StAX support, so that POI's OOXML libraries are not needed.  The sheet is streamed one
+ * cell at a time, and the shared strings are kept in a SharedStringTable, so memory use
+ * is bounded by the number of strings rather than their size.  Cells are converted to
+ * strings like XLSFile does, so a workbook gives the same strings in either format.
+ */
+public class XLSXFile implements LocaleSourceFile, LocaleSourceReader {
+  static final String RELATIONSHIPS_NAMESPACE =
+    "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+  /** The last part of the relationship types, which differ between transitional and strict OOXML */
+  private static final String TYPE_OFFICE_DOCUMENT = "officeDocument";
+  private static final String TYPE_WORKSHEET = "worksheet";
+  private static final String TYPE_SHARED_STRINGS = "sharedStrings";
+  private static final String TYPE_STYLES = "styles";
+
+  public LocaleStringDictionary read(String filename) throws IOException {
+    DictionaryBuilder builder = new DictionaryBuilder();
+    read(filename, builder);
+    return builder.getDictionary();
+  }
+
+  /**
+   * Reads the first sheet one row at a time.  Rows without a key are skipped, and empty
+   * cells are passed as null values.
+   * @param filename Excel spreadsheet to read
+   * @param handler Receives the locale names and then each row
+   * @throws IOException If the file could not be read or is malformed
+   */
+  public void read(String filename, LocaleRowHandler handler) throws IOException {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    // Spreadsheets come from outside the build, so don't resolve any entities
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+
+    ZipFile zipFile = new ZipFile(filename);
+    SharedStringTable sharedStrings = new SharedStringTable();
+    try {
+      WorkbookReader workbook = new WorkbookReader(zipFile, factory);
+      String workbookPath = workbook.readRelationships("").get(TYPE_OFFICE_DOCUMENT);
+      if(workbookPath == null) {
+        workbookPath = "xl/workbook.xml";
+      }
+      Map<String, String> workbookParts = workbook.readRelationships(workbookPath);
+      workbook.readWorkbook(workbookPath, workbookParts);
+      if(workbookParts.containsKey(TYPE_SHARED_STRINGS)) {
+        workbook.readSharedStrings(workbookParts.get(TYPE_SHARED_STRINGS), sharedStrings);
+      }
+      sharedStrings.seal();
+      if(workbookParts.containsKey(TYPE_STYLES)) {
+        workbook.readStyles(workbookParts.get(TYPE_STYLES));
+      }
+      workbook.readSheet(workbook.firstSheetPath, sharedStrings, new SheetRows(new File(filename).getName(), handler));
+    }
+    catch(XMLStreamException e) {
+      throw new IOException("Malformed XLSX file '" + filename + "': " + e.getMessage(), e);
+    }
+    finally {
+      sharedStrings.close();
+      zipFile.close();
+    }
+  }
+
+  /**
+   * Writes the dictionary with an XLSXWriter, in the order of its keys
+   * @param filename Excel spreadsheet to write
+   * @param inStrings Strings to write
+   * @return True
+   * @throws IOException If the file could not be written
+   */
+  public boolean write(String filename, LocaleStringDictionary inStrings) throws IOException {
+    LocaleStringSet localeNames = inStrings.get("LOCALE KEY");
+    if(localeNames == null) {
+      throw new IOException("Could not find 'LOCALE KEY' string in input map");
+    }
+    List<String> locales = Arrays.asList(localeNames.keySet());
+
+    XLSXWriter outStream = new XLSXWriter(new BufferedOutputStream(new FileOutputStream(filename)));
+    try {
+      outStream.handleHeader(locales);
+      List<CharSequence> values = new ArrayList<CharSequence>(locales.size());
+      for(String key : inStrings.keySet()) {
+        if(key.equals("LOCALE KEY")) {
+          continue;
+        }
+        LocaleStringSet keyStrings = inStrings.get(key);
+        values.clear();
+        for(String locale : locales) {
+          values.add(keyStrings.get(locale));
+        }
+        outStream.handleRow(key, values);
+      }
+    }
+    finally {
+      outStream.close();
+    }
+    return true;
+  }
+
+  /**
+   * Checks whether an Excel number format shows a date, using the same rules as POI's
+   * HSSFDateUtil.isADateFormat(), so that XLS and XLSX files agree on which cells are dates
+   */
+  static boolean isDateFormat(int formatIndex, String formatString) {
+    if((formatIndex >= 0x0e && formatIndex <= 0x16) || (formatIndex >= 0x2d && formatIndex <= 0x2f)) {
+      return true;
+    }
+    if(formatString == null || formatString.length() == 0) {
+      return false;
+    }
+    String format = formatString.replaceAll("\\\\-", "-").replaceAll("\\\\,", ",").replaceAll("\\\\ ", " ");
+    format = format.replaceAll(";@", "");
+    // Locale prefixes such as [$-409] and colours such as [Red]
+    format = format.replaceAll("^\\[\\$\\-.*?\\]", "");
+    format = format.replaceAll("^\\[[a-zA-Z]+\\]", "");
+    return format.matches("^[yYmMdDhHsS\\-/,. :]+[ampAMP/]*$");
+  }
+
+  /**
+   * Converts an Excel date to a Java date like HSSFDateUtil.getJavaDate(), ignoring the
+   * time of day.  The 1900 date system counts a 29th of February 1900 which never was.
+   */
+  static Calendar toCalendar(double excelDate, boolean uses1904Dates) {
+    int wholeDays = (int)Math.floor(excelDate);
+    int startYear = 1900;
+    int dayAdjust = -1;
+    if(uses1904Dates) {
+      startYear = 1904;
+      dayAdjust = 1;
+    }
+    else if(wholeDays < 61) {
+      dayAdjust = 0;
+    }
+    Calendar calendar = new GregorianCalendar();
+    calendar.clear();
+    calendar.set(startYear, Calendar.JANUARY, wholeDays + dayAdjust, 0, 0, 0);
+    return calendar;
+  }
+
+  /**
+   * Excel writes characters which XML can't hold as _xHHHH_, where HHHH is the hex
+   * code of the character
+   */
+  static String decodeEscapes(String text) {
+    int escape = text.indexOf("_x");
+    if(escape < 0) {
+      return text;
+    }
+    StringBuilder decoded = new StringBuilder(text.length());
+    int copied = 0;
+    while(escape >= 0) {
+      if(escape + 7 <= text.length() && text.charAt(escape + 6) == '_' && isHex(text, escape + 2, escape + 6)) {
+        decoded.append(text, copied, escape);
+        decoded.append((char)Integer.parseInt(text.substring(escape + 2, escape + 6), 16));
+        copied = escape + 7;
+        escape = text.indexOf("_x", copied);
+      }
+      else {
+        escape = text.indexOf("_x", escape + 1);
+      }
+    }
+    decoded.append(text, copied, text.length());
+    return decoded.toString();
+  }
+
+  private static boolean isHex(String text, int start, int end) {
+    for(int i = start; i < end; i++) {
+      if(Character.digit(text.charAt(i), 16) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads the parts of a workbook which are needed to convert the cells of its first
+   * sheet, then streams that sheet
+   */
+  private static class WorkbookReader {
+    private final ZipFile zipFile;
+    private final XMLInputFactory factory;
+    private String firstSheetPath = null;
+    private boolean uses1904Dates = false;
+    /** Whether each cell style is a date format, by the cells' style index */
+    private boolean[] dateStyles = new boolean[0];
+    private SimpleDateFormat dateFormat = null;
+
+    WorkbookReader(ZipFile zipFile, XMLInputFactory factory) {
+      this.zipFile = zipFile;
+      this.factory = factory;
+    }
+
+    private XMLStreamReader open(String path) throws IOException, XMLStreamException {
+      ZipEntry entry = zipFile.getEntry(path);
+      if(entry == null) {
+        throw new IOException("Malformed XLSX file; could not find '" + path + "'");
+      }
+      InputStream inStream = new BufferedInputStream(zipFile.getInputStream(entry), 65536);
+      return factory.createXMLStreamReader(inStream);
+    }
+
+    /**
+     * @param partPath Part whose relationships to read, or an empty string for the package
+     * @return The path of each related part, by the last part of its type, and by its id
+     */
+    Map<String, String> readRelationships(String partPath) throws IOException, XMLStreamException {
+      int nameStart = partPath.lastIndexOf('/') + 1;
+      String relationshipsPath = partPath.substring(0, nameStart) + "_rels/" + partPath.substring(nameStart) + ".rels";
+      Map<String, String> parts = new HashMap<String, String>();
+      if(zipFile.getEntry(relationshipsPath) == null) {
+        return parts;
+      }
+      XMLStreamReader reader = open(relationshipsPath);
+      try {
+        URI base = URI.create("/" + partPath);
+        while(reader.hasNext()) {
+          if(reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("Relationship") &&
+            !"External".equals(reader.getAttributeValue(null, "TargetMode"))) {
+            String type = reader.getAttributeValue(null, "Type");
+            // Targets are relative to the part's directory unless they start with a slash
+            String path = base.resolve(reader.getAttributeValue(null, "Target")).getPath().substring(1);
+            if(type != null && !parts.containsKey(type.substring(type.lastIndexOf('/') + 1))) {
+              parts.put(type.substring(type.lastIndexOf('/') + 1), path);
+            }
+            parts.put(reader.getAttributeValue(null, "Id"), path);
+          }
+        }
+      }
+      finally {
+        reader.close();
+      }
+      return parts;
+    }
+
+    /** Finds the first sheet and the date system */
+    void readWorkbook(String path, Map<String, String> workbookParts) throws IOException, XMLStreamException {
+      XMLStreamReader reader = open(path);
+      try {
+        while(reader.hasNext() && firstSheetPath == null) {
+          if(reader.next() != XMLStreamConstants.START_ELEMENT) {
+            continue;
+          }
+          if(reader.getLocalName().equals("workbookPr")) {
+            String date1904 = reader.getAttributeValue(null, "date1904");
+            uses1904Dates = "1".equals(date1904) || "true".equals(date1904);
+          }
+          else if(reader.getLocalName().equals("sheet")) {
+            String id = reader.getAttributeValue(RELATIONSHIPS_NAMESPACE, "id");
+            if(id == null) {
+              // Strict OOXML uses another namespace
+              for(int i = 0; i < reader.getAttributeCount(); i++) {
+                if(reader.getAttributeLocalName(i).equals("id")) {
+                  id = reader.getAttributeValue(i);
+                }
+              }
+            }
+            firstSheetPath = workbookParts.get(id);
+            if(firstSheetPath == null) {
+              throw new IOException("Malformed XLSX file; could not find the first sheet");
+            }
+          }
+        }
+      }
+      finally {
+        reader.close();
+      }
+      if(firstSheetPath == null) {
+        throw new IOException("Malformed XLSX file; the workbook has no sheets");
+      }
+    }
+
+    void readSharedStrings(String path, SharedStringTable sharedStrings) throws IOException, XMLStreamException {
+      XMLStreamReader reader = open(path);
+      try {
+        while(reader.hasNext()) {
+          if(reader.next() != XMLStreamConstants.START_ELEMENT) {
+            continue;
+          }
+          if(reader.getLocalName().equals("si")) {
+            sharedStrings.add(readText(reader, "si"));
+          }
+          else if(reader.getLocalName().equals("sst") && reader.getAttributeValue(null, "uniqueCount") != null) {
+            sharedStrings.ensureCapacity(Integer.parseInt(reader.getAttributeValue(null, "uniqueCount")));
+          }
+        }
+      }
+      catch(NumberFormatException e) {
+        throw new IOException("Malformed XLSX file; bad string count in '" + path + "'");
+      }
+      finally {
+        reader.close();
+      }
+    }
+
+    /**
+     * Reads the text of a string item, ie. its own text or that of all its runs, but not
+     * the phonetic hints of East Asian text
+     */
+    private static String readText(XMLStreamReader reader, String elementName) throws XMLStreamException {
+      StringBuilder text = new StringBuilder();
+      while(reader.hasNext()) {
+        int event = reader.next();
+        if(event == XMLStreamConstants.START_ELEMENT) {
+          if(reader.getLocalName().equals("t")) {
+            text.append(reader.getElementText());
+          }
+          else if(reader.getLocalName().equals("rPh")) {
+            skipElement(reader);
+          }
+        }
+        else if(event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals(elementName)) {
+          break;
+        }
+      }
+      return decodeEscapes(text.toString());
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+      int depth = 1;
+      while(depth > 0 && reader.hasNext()) {
+        int event = reader.next();
+        if(event == XMLStreamConstants.START_ELEMENT) {
+          depth++;
+        }
+        else if(event == XMLStreamConstants.END_ELEMENT) {
+          depth--;
+        }
+      }
+    }
+
+    /** Finds the cell styles which show numbers as dates */
+    void readStyles(String path) throws IOException, XMLStreamException {
+      Map<Integer, String> formats = new HashMap<Integer, String>();
+      List<Integer> cellFormats = new ArrayList<Integer>();
+      XMLStreamReader reader = open(path);
+      try {
+        boolean inCellFormats = false;
+        while(reader.hasNext()) {
+          int event = reader.next();
+          if(event == XMLStreamConstants.START_ELEMENT) {
+            if(reader.getLocalName().equals("numFmt")) {
+              formats.put(Integer.valueOf(reader.getAttributeValue(null, "numFmtId")),
+                reader.getAttributeValue(null, "formatCode"));
+            }
+            else if(reader.getLocalName().equals("cellXfs")) {
+              inCellFormats = true;
+            }
+            else if(inCellFormats && reader.getLocalName().equals("xf")) {
+              String formatId = reader.getAttributeValue(null, "numFmtId");
+              cellFormats.add(formatId == null ? 0 : Integer.valueOf(formatId));
+            }
+          }
+          else if(event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("cellXfs")) {
+            inCellFormats = false;
+          }
+        }
+      }
+      catch(NumberFormatException e) {
+        throw new IOException("Malformed XLSX file; bad number format in '" + path + "'");
+      }
+      finally {
+        reader.close();
+      }
+
+      dateStyles = new boolean[cellFormats.size()];
+      for(int i = 0; i < dateStyles.length; i++) {
+        int formatId = cellFormats.get(i);
+        dateStyles[i] = isDateFormat(formatId, formats.get(formatId));
+      }
+    }
+
+    /** Streams the cells of the sheet, in document order, to the rows */
+    void readSheet(String path, SharedStringTable sharedStrings, SheetRows rows) throws IOException, XMLStreamException {
+      XMLStreamReader reader = open(path);
+      try {
+        int rowIndex = -1;
+        int column = -1;
+        while(reader.hasNext()) {
+          if(reader.next() != XMLStreamConstants.START_ELEMENT) {
+            continue;
+          }
+          if(reader.getLocalName().equals("row")) {
+            String rowNumber = reader.getAttributeValue(null, "r");
+            rowIndex = rowNumber != null ? Integer.parseInt(rowNumber) - 1 : rowIndex + 1;
+            column = -1;
+          }
+          else if(reader.getLocalName().equals("c")) {
+            String cellReference = reader.getAttributeValue(null, "r");
+            column = cellReference != null ? parseColumn(cellReference) : column + 1;
+            String value = readCell(reader, sharedStrings);
+            if(value != null) {
+              rows.addCell(rowIndex, column, value);
+            }
+          }
+        }
+      }
+      catch(NumberFormatException e) {
+        throw new IOException("Malformed XLSX file; bad number in '" + path + "': " + e.getMessage());
+      }
+      finally {
+        reader.close();
+      }
+      rows.finish();
+    }
+
+    /** @return The column index of a cell reference such as AB12, starting from 0 */
+    private static int parseColumn(String cellReference) {
+      int column = 0;
+      for(int i = 0; i < cellReference.length(); i++) {
+        char c = cellReference.charAt(i);
+        if(c < 'A' || c > 'Z') {
+          break;
+        }
+        column = column * 26 + (c - 'A' + 1);
+      }
+      return column - 1;
+    }
+
+    /**
+     * Converts a cell to a string like HSSFCell.toString() does, ie. formulas as their
+     * text, booleans as TRUE or FALSE, and dates as dd-MMM-yyyy
+     * @return The cell's text, or null if it has none
+     */
+    private String readCell(XMLStreamReader reader, SharedStringTable sharedStrings)
+      throws IOException, XMLStreamException {
+      String type = reader.getAttributeValue(null, "t");
+      String style = reader.getAttributeValue(null, "s");
+      String value = null;
+      String formula = null;
+      String inlineText = null;
+      while(reader.hasNext()) {
+        int event = reader.next();
+        if(event == XMLStreamConstants.START_ELEMENT) {
+          if(reader.getLocalName().equals("v")) {
+            value = reader.getElementText();
+          }
+          else if(reader.getLocalName().equals("f")) {
+            formula = reader.getElementText();
+          }
+          else if(reader.getLocalName().equals("is")) {
+            inlineText = readText(reader, "is");
+          }
+          else {
+            skipElement(reader);
+          }
+        }
+        else if(event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("c")) {
+          break;
+        }
+      }
+
+      // Cells sharing a formula only hold it in the first cell, so use the others' values
+      if(formula != null && formula.length() > 0) {
+        return formula;
+      }
+      else if("inlineStr".equals(type)) {
+        return inlineText;
+      }
+      else if(value == null) {
+        return null;
+      }
+      else if("s".equals(type)) {
+        return sharedStrings.get(Integer.parseInt(value.trim()));
+      }
+      else if("b".equals(type)) {
+        return "1".equals(value.trim()) || "true".equals(value.trim()) ? "TRUE" : "FALSE";
+      }
+      else if("str".equals(type) || "e".equals(type) || "d".equals(type)) {
+        return decodeEscapes(value);
+      }
+      return formatNumber(Double.parseDouble(value), style == null ? 0 : Integer.parseInt(style));
+    }
+
+    /** Formats a number like HSSFCell.toString(), ie. dates as dd-MMM-yyyy */
+    private String formatNumber(double value, int style) {
+      if(value >= 0 && style < dateStyles.length && dateStyles[style]) {
+        if(dateFormat == null) {
+          dateFormat = new SimpleDateFormat("dd-MMM-yyyy");
+        }
+        return dateFormat.format(toCalendar(value, uses1904Dates).getTime());
+      }
+      return String.valueOf(value);
+    }
+  }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.filetypes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes rows of locale strings as an Excel 2007 (.xlsx) workbook with a single sheet,
+ * in the format read by XLSXFile.  The workbook is streamed: the fixed parts are written
+ * first, then each row is escaped into a reusable buffer which is flushed to the zip
+ * stream in large blocks, so memory use does not depend on the number of rows.  Strings
+ * are written inline in their cells, as a shared string table would have to be held in
+ * memory until the end.
+ * <p>
+ * Missing and empty values are left out of their rows.  Every zip entry gets the same
+ * timestamp, so writing the same rows twice gives identical files.
+ */
+public class XLSXWriter implements LocaleRowWriter {
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+  /** Longest escaped form of a character, ie. _xHHHH_ */
+  private static final int MAX_ESCAPED_LENGTH = 7;
+  private static final String SHEET_PATH = "xl/worksheets/sheet1.xml";
+  private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+  private static final String MAIN_NAMESPACE = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+  private static final String PACKAGE_RELATIONSHIPS_NAMESPACE =
+    "http://schemas.openxmlformats.org/package/2006/relationships";
+
+  private final ZipOutputStream zipStream;
+  private final Writer writer;
+  private final long entryTime = new GregorianCalendar(2009, 0, 1).getTimeInMillis();
+  private char[] buffer;
+  private int length = 0;
+  private int numRows = 0;
+  /** Index of the row being written, starting from 1 as in the sheet */
+  private int rowNumber = 0;
+  private String rowName = null;
+  /** Column names, ie. A, B, C, and so on, as they are needed */
+  private final List<String> columnNames = new ArrayList<String>();
+
+  /**
+   * @param outStream Stream to write to, which is closed by close()
+   */
+  public XLSXWriter(OutputStream outStream) throws IOException {
+    this(outStream, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param outStream Stream to write to, which is closed by close()
+   * @param bufferSize Number of characters to collect before writing them
+   */
+  public XLSXWriter(OutputStream outStream, int bufferSize) throws IOException {
+    if(bufferSize < MAX_ESCAPED_LENGTH) {
+      throw new IllegalArgumentException("Buffer size must be at least " + MAX_ESCAPED_LENGTH);
+    }
+    this.zipStream = new ZipOutputStream(outStream);
+    // Sheets are large and very repetitive, so the fastest level compresses them almost as well
+    zipStream.setLevel(Deflater.BEST_SPEED);
+    this.writer = new OutputStreamWriter(zipStream, "UTF8");
+    this.buffer = new char[bufferSize];
+
+    writeEntry("[Content_Types].xml",
+      "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">" +
+      "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>" +
+      "<Default Extension=\"xml\" ContentType=\"application/xml\"/>" +
+      "<Override PartName=\"/xl/workbook.xml\" " +
+      "ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>" +
+      "<Override PartName=\"/" + SHEET_PATH + "\" " +
+      "ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>" +
+      "<Override PartName=\"/xl/styles.xml\" " +
+      "ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>" +
+      "</Types>");
+    writeEntry("_rels/.rels",
+      "<Relationships xmlns=\"" + PACKAGE_RELATIONSHIPS_NAMESPACE + "\">" +
+      "<Relationship Id=\"rId1\" Type=\"" + XLSXFile.RELATIONSHIPS_NAMESPACE + "/officeDocument\" " +
+      "Target=\"xl/workbook.xml\"/>" +
+      "</Relationships>");
+    writeEntry("xl/workbook.xml",
+      "<workbook xmlns=\"" + MAIN_NAMESPACE + "\" xmlns:r=\"" + XLSXFile.RELATIONSHIPS_NAMESPACE + "\">" +
+      "<sheets><sheet name=\"Locale keys\" sheetId=\"1\" r:id=\"rId1\"/></sheets>" +
+      "</workbook>");
+    writeEntry("xl/_rels/workbook.xml.rels",
+      "<Relationships xmlns=\"" + PACKAGE_RELATIONSHIPS_NAMESPACE + "\">" +
+      "<Relationship Id=\"rId1\" Type=\"" + XLSXFile.RELATIONSHIPS_NAMESPACE + "/worksheet\" " +
+      "Target=\"worksheets/sheet1.xml\"/>" +
+      "<Relationship Id=\"rId2\" Type=\"" + XLSXFile.RELATIONSHIPS_NAMESPACE + "/styles\" " +
+      "Target=\"styles.xml\"/>" +
+      "</Relationships>");
+    // The least Excel accepts: one font, the two reserved fills, one border and one style
+    writeEntry("xl/styles.xml",
+      "<styleSheet xmlns=\"" + MAIN_NAMESPACE + "\">" +
+      "<fonts count=\"1\"><font><sz val=\"11\"/><name val=\"Calibri\"/></font></fonts>" +
+      "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill>" +
+      "<fill><patternFill patternType=\"gray125\"/></fill></fills>" +
+      "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>" +
+      "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>" +
+      "<cellXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/></cellXfs>" +
+      "<cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>" +
+      "</styleSheet>");
+
+    // The sheet stays open until close()
+    startEntry(SHEET_PATH);
+    writer.write(XML_DECLARATION);
+    // The header row is frozen, so that the locale names stay visible while scrolling
+    writer.write("<worksheet xmlns=\"" + MAIN_NAMESPACE + "\">" +
+      "<sheetViews><sheetView workbookViewId=\"0\">" +
+      "<pane ySplit=\"1\" topLeftCell=\"A2\" activePane=\"bottomLeft\" state=\"frozen\"/>" +
+      "</sheetView></sheetViews><sheetData>");
+  }
+
+  private void startEntry(String path) throws IOException {
+    ZipEntry entry = new ZipEntry(path);
+    entry.setTime(entryTime);
+    zipStream.putNextEntry(entry);
+  }
+
+  private void writeEntry(String path, String content) throws IOException {
+    startEntry(path);
+    writer.write(XML_DECLARATION);
+    writer.write(content);
+    writer.flush();
+    zipStream.closeEntry();
+  }
+
+  /**
+   * Writes the header row
+   * @param locales Names of the locales, in the order of each row's values
+   */
+  public void handleHeader(List<String> locales) throws IOException {
+    startRow();
+    writeCell(0, "LOCALE KEY");
+    for(int i = 0; i < locales.size(); i++) {
+      writeCell(i + 1, locales.get(i));
+    }
+    endRow();
+  }
+
+  /**
+   * Writes a row of strings
+   * @param key The row's locale key
+   * @param values The row's strings in the order of the locales, where null means the
+   * string is missing
+   */
+  public void handleRow(String key, List<CharSequence> values) throws IOException {
+    startRow();
+    writeCell(0, key);
+    for(int i = 0; i < values.size(); i++) {
+      CharSequence value = values.get(i);
+      if(value != null && value.length() > 0) {
+        writeCell(i + 1, value);
+      }
+    }
+    endRow();
+    numRows++;
+  }
+
+  public int getNumRows() {
+    return numRows;
+  }
+
+  private void startRow() throws IOException {
+    rowNumber++;
+    rowName = Integer.toString(rowNumber);
+    append("<row r=\"");
+    append(rowName);
+    append("\">");
+  }
+
+  private void endRow() throws IOException {
+    append("</row>");
+  }
+
+  private void writeCell(int column, CharSequence text) throws IOException {
+    if(text.length() == 0) {
+      return;
+    }
+    append("<c r=\"");
+    append(getColumnName(column));
+    append(rowName);
+    // Leading and trailing spaces would otherwise be dropped by the reader
+    if(Character.isWhitespace(text.charAt(0)) || Character.isWhitespace(text.charAt(text.length() - 1))) {
+      append("\" t=\"inlineStr\"><is><t xml:space=\"preserve\">");
+    }
+    else {
+      append("\" t=\"inlineStr\"><is><t>");
+    }
+    writeText(text);
+    append("</t></is></c>");
+  }
+
+  /**
+   * Escapes text for XML.  Characters which XML can't hold, and carriage returns which
+   * the reader would turn into line feeds, are written as _xHHHH_ like Excel does, and
+   * underscores which would be mistaken for such an escape are escaped themselves.
+   */
+  private void writeText(CharSequence text) throws IOException {
+    int textLength = text.length();
+    for(int i = 0; i < textLength; i++) {
+      if(length + MAX_ESCAPED_LENGTH > buffer.length) {
+        flushBuffer();
+      }
+      char c = text.charAt(i);
+      if(c == '&') {
+        appendUnchecked("&amp;");
+      }
+      else if(c == '<') {
+        appendUnchecked("&lt;");
+      }
+      else if(c == '>') {
+        appendUnchecked("&gt;");
+      }
+      else if((c < 0x20 && c != '\t' && c != '\n') || c == 0xfffe || c == 0xffff ||
+        (c == '_' && isEscapeLike(text, i))) {
+        appendUnchecked(String.format("_x%04X_", (int)c));
+      }
+      else {
+        buffer[length++] = c;
+      }
+    }
+  }
+
+  /** @return True if the text has the form _xHHHH_ at the given index */
+  private static boolean isEscapeLike(CharSequence text, int start) {
+    if(start + 7 > text.length() || text.charAt(start + 1) != 'x' || text.charAt(start + 6) != '_') {
+      return false;
+    }
+    for(int i = start + 2; i < start + 6; i++) {
+      if(Character.digit(text.charAt(i), 16) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String getColumnName(int column) {
+    while(columnNames.size() <= column) {
+      int index = columnNames.size() + 1;
+      StringBuilder name = new StringBuilder();
+      while(index > 0) {
+        name.insert(0, (char)('A' + (index - 1) % 26));
+        index = (index - 1) / 26;
+      }
+      columnNames.add(name.toString());
+    }
+    return columnNames.get(column);
+  }
+
+  private void append(String text) throws IOException {
+    if(length + text.length() > buffer.length) {
+      flushBuffer();
+      if(text.length() > buffer.length) {
+        writer.write(text);
+        return;
+      }
+    }
+    appendUnchecked(text);
+  }
+
+  /** Appends text for which there is known to be room in the buffer */
+  private void appendUnchecked(String text) {
+    text.getChars(0, text.length(), buffer, length);
+    length += text.length();
+  }
+
+  private void flushBuffer() throws IOException {
+    if(length > 0) {
+      writer.write(buffer, 0, length);
+      length = 0;
+    }
+  }
+
+  /** Writes any buffered rows, finishes the workbook and closes the underlying stream */
+  public void close() throws IOException {
+    try {
+      append("</sheetData></worksheet>");
+      flushBuffer();
+      writer.flush();
+      zipStream.closeEntry();
+    }
+    finally {
+      writer.close();
+    }
+  }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Collects the wall time, counters and slowest files of each phase of a task, eg.
+ * walking and scanning the source folder.  Counters belong to a phase, so that a
+ * throughput (count per second) can be calculated from the phase's time.  The
+ * results can be exported as properties and as a JSON file.  Thread safe, so that
+ * several workers can record files at once.
+ */
+public class TaskMetrics {
+  public static final String PHASE_WALK = "walk";
+  public static final String PHASE_SCAN = "scan";
+  public static final String PHASE_LOAD_LOCALES = "loadLocales";
+  public static final String PHASE_PARSE_MASTER = "parseMaster";
+  public static final String PHASE_WRITE_OUTPUTS = "writeOutputs";
+
+  public static final String COUNT_FILES = "files";
+  public static final String COUNT_BYTES = "bytes";
+  public static final String COUNT_ROWS = "rows";
+  public static final String COUNT_KEYS = "keys";
+  /** Output files which were left alone, as their content did not change */
+  public static final String COUNT_SKIPPED = "skipped";
+
+  public static final int DEFAULT_SLOWEST_FILES = 10;
+
+  private final String name;
+  private final int maxSlowestFiles;
+  private final long startTime = System.nanoTime();
+  /** Phases in the order they were first recorded */
+  private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+  /** Min-heap, so that the fastest of the slowest files is replaced first */
+  private final PriorityQueue<FileTime> slowestFiles;
+
+  private static class Phase {
+    long nanos = 0;
+    final Map<String, Long> counts = new LinkedHashMap<String, Long>();
+  }
+
+  private static class FileTime {
+    final String path;
+    final long bytes;
+    final long nanos;
+
+    FileTime(String path, long bytes, long nanos) {
+      this.path = path;
+      this.bytes = bytes;
+      this.nanos = nanos;
+    }
+  }
+
+  private static final Comparator<FileTime> BY_TIME = new Comparator<FileTime>() {
+    public int compare(FileTime first, FileTime second) {
+      return first.nanos < second.nanos ? -1 : (first.nanos == second.nanos ? 0 : 1);
+    }
+  };
+
+  /**
+   * @param name Name of the measured task, eg. "checkL10NKeys"
+   * @param maxSlowestFiles Number of slowest files to remember, or 0 for none
+   */
+  public TaskMetrics(String name, int maxSlowestFiles) {
+    this.name = name;
+    this.maxSlowestFiles = maxSlowestFiles;
+    this.slowestFiles = new PriorityQueue<FileTime>(Math.max(maxSlowestFiles, 1), BY_TIME);
+  }
+
+  /**
+   * Adds to the wall time of a phase.  Phases may overlap, eg. the scan phase
+   * starts while the walk phase is still in progress.
+   * @param phase Name of the phase, eg. PHASE_SCAN
+   * @param nanos Time spent, in nanoseconds
+   */
+  public synchronized void addTime(String phase, long nanos) {
+    getPhase(phase).nanos += nanos;
+  }
+
+  /**
+   * Adds to the wall time of a phase which started at the given time and has just ended
+   * @param phase Name of the phase, eg. PHASE_SCAN
+   * @param startNanos Value of System.nanoTime() when the phase started
+   */
+  public void addTimeSince(String phase, long startNanos) {
+    addTime(phase, System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Adds to one of the counters of a phase
+   * @param phase Name of the phase, eg. PHASE_SCAN
+   * @param counter Name of the counter, eg. COUNT_ROWS
+   * @param count Amount to add
+   */
+  public synchronized void addCount(String phase, String counter, long count) {
+    Map<String, Long> counts = getPhase(phase).counts;
+    Long oldCount = counts.get(counter);
+    counts.put(counter, oldCount != null ? oldCount + count : count);
+  }
+
+  /**
+   * Counts a processed file and its size, and remembers it if it is one of the slowest
+   * @param phase Name of the phase, eg. PHASE_SCAN
+   * @param file The file
+   * @param bytes Size of the file
+   * @param nanos Time spent processing the file
+   */
+  public synchronized void addFile(String phase, File file, long bytes, long nanos) {
+    addCount(phase, COUNT_FILES, 1);
+    addCount(phase, COUNT_BYTES, bytes);
+    if(maxSlowestFiles > 0) {
+      if(slowestFiles.size() < maxSlowestFiles) {
+        slowestFiles.add(new FileTime(file.getPath(), bytes, nanos));
+      }
+      else if(slowestFiles.peek().nanos < nanos) {
+        slowestFiles.poll();
+        slowestFiles.add(new FileTime(file.getPath(), bytes, nanos));
+      }
+    }
+  }
+
+  private Phase getPhase(String phase) {
+    Phase result = phases.get(phase);
+    if(result == null) {
+      result = new Phase();
+      phases.put(phase, result);
+    }
+    return result;
+  }
+
+  /** @return Milliseconds since these metrics were created */
+  public long getTotalMillis() {
+    return toMillis(System.nanoTime() - startTime);
+  }
+
+  /**
+   * Converts the metrics to properties named after the phases and counters:
+   * <ul>
+   * <li>prefix.totalMillis: Time since the metrics were created</li>
+   * <li>prefix.phase.millis: Time spent in the phase</li>
+   * <li>prefix.phase.counter: Value of the counter, eg. prefix.scan.bytes</li>
+   * <li>prefix.phase.counterPerSecond: Counter divided by the phase's time</li>
+   * <li>prefix.slowestFiles: Comma separated list of the slowest files and their
+   * times in milliseconds, slowest first, eg. "src/Big.as=12,src/Other.as=8"</li>
+   * </ul>
+   * @param prefix Prefix of all property names
+   * @return Properties in a fixed order
+   */
+  public synchronized Map<String, String> toProperties(String prefix) {
+    Map<String, String> properties = new LinkedHashMap<String, String>();
+    properties.put(prefix + ".totalMillis", String.valueOf(getTotalMillis()));
+    for(Map.Entry<String, Phase> phase : phases.entrySet()) {
+      String phasePrefix = prefix + "." + phase.getKey() + ".";
+      long nanos = phase.getValue().nanos;
+      properties.put(phasePrefix + "millis", String.valueOf(toMillis(nanos)));
+      for(Map.Entry<String, Long> count : phase.getValue().counts.entrySet()) {
+        properties.put(phasePrefix + count.getKey(), String.valueOf(count.getValue()));
+        if(nanos > 0) {
+          properties.put(phasePrefix + count.getKey() + "PerSecond", String.valueOf(perSecond(count.getValue(), nanos)));
+        }
+      }
+    }
+
+    StringBuilder slowest = new StringBuilder();
+    for(FileTime fileTime : getSlowestFiles()) {
+      if(slowest.length() > 0) {
+        slowest.append(',');
+      }
+      slowest.append(fileTime.path).append('=').append(toMillis(fileTime.nanos));
+    }
+    properties.put(prefix + ".slowestFiles", slowest.toString());
+    return properties;
+  }
+
+  /**
+   * Writes the metrics to a JSON file, using the same names as toProperties()
+   * @param file File to write
+   * @throws IOException If the file could not be written
+   */
+  public synchronized void writeJson(File file) throws IOException {
+    BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF8"));
+    try {
+      writer.write("{\n  \"task\": " + quote(name) + ",\n  \"totalMillis\": " + getTotalMillis() + ",\n  \"phases\": {");
+      String separator = "\n";
+      for(Map.Entry<String, Phase> phase : phases.entrySet()) {
+        long nanos = phase.getValue().nanos;
+        writer.write(separator + "    " + quote(phase.getKey()) + ": {\"millis\": " + toMillis(nanos));
+        for(Map.Entry<String, Long> count : phase.getValue().counts.entrySet()) {
+          writer.write(", " + quote(count.getKey()) + ": " + count.getValue());
+          if(nanos > 0) {
+            writer.write(", " + quote(count.getKey() + "PerSecond") + ": " + perSecond(count.getValue(), nanos));
+          }
+        }
+        writer.write("}");
+        separator = ",\n";
+      }
+      writer.write("\n  },\n  \"slowestFiles\": [");
+      separator = "\n";
+      for(FileTime fileTime : getSlowestFiles()) {
+        writer.write(separator + "    {\"file\": " + quote(fileTime.path) + ", \"bytes\": " + fileTime.bytes +
+          ", \"millis\": " + toMillis(fileTime.nanos) + "}");
+        separator = ",\n";
+      }
+      writer.write("\n  ]\n}\n");
+    }
+    finally {
+      writer.close();
+    }
+  }
+
+  /** @return The slowest files, slowest first */
+  private List<FileTime> getSlowestFiles() {
+    List<FileTime> files = new ArrayList<FileTime>(slowestFiles);
+    Collections.sort(files, Collections.reverseOrder(BY_TIME));
+    return files;
+  }
+
+  private static long toMillis(long nanos) {
+    return nanos / 1000000;
+  }
+
+  private static long perSecond(long count, long nanos) {
+    return Math.round(count * 1000000000.0 / nanos);
+  }
+
+  private static String quote(String value) {
+    StringBuilder quoted = new StringBuilder(value.length() + 2);
+    quoted.append('"');
+    for(int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if(c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      }
+      else if(c < ' ') {
+        quoted.append(String.format("\\u%04x", (int)c));
+      }
+      else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.scanner;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Presents the bytes of an ASCII-compatible buffer as characters without
+ * decoding them.  Every byte becomes one character, so multi-byte sequences
+ * show up as several characters above 0x7f, which never match any of the ASCII
+ * tokens that KeyCallMatcher looks for.  The sequence can be pointed at a new
+ * buffer for every file, so a single instance serves a scanner's whole run.
+ */
+class ByteCharSequence implements CharSequence {
+  private ByteBuffer bytes;
+  private int offset;
+  private int length;
+
+  ByteCharSequence() {
+    reset(ByteBuffer.allocate(0));
+  }
+
+  private ByteCharSequence(ByteBuffer bytes, int offset, int length) {
+    this.bytes = bytes;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Points this sequence at the bytes between the buffer's position and limit
+   * @param bytes Buffer to read from, which must not be modified while in use
+   */
+  void reset(ByteBuffer bytes) {
+    this.bytes = bytes;
+    this.offset = bytes.position();
+    this.length = bytes.remaining();
+  }
+
+  public int length() {
+    return length;
+  }
+
+  public char charAt(int index) {
+    return (char)(bytes.get(offset + index) & 0xff);
+  }
+
+  public CharSequence subSequence(int start, int end) {
+    return new ByteCharSequence(bytes, offset + start, end - start);
+  }
+
+  public String toString() {
+    char[] chars = new char[length];
+    for(int i = 0; i < length; i++) {
+      chars[i] = charAt(i);
+    }
+    return new String(chars);
+  }
+}
@@ -28,19 +28,40 @@
 
 package se.singbox.scanner;
 
+import se.singbox.metrics.TaskMetrics;
+
 import java.io.BufferedReader;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-/** Scans an individual file for locale keys */
+/**
+ * Scans an individual file for locale keys.  A scanner keeps reusable buffers
+ * between files, so it should not be shared between threads; use the copy
+ * constructor to create scanners with the same settings for other threads.
+ */
 public class FileScanner {
+  /** Matches keys line-by-line using KEY_REGEX */
+  public static final String MATCHER_REGEX = "regex";
+  /** Reads entire files through NIO and matches keys using KeyCallMatcher and its KeyPatterns */
+  public static final String MATCHER_NATIVE = "native";
+  /** Files larger than this are memory-mapped instead of read into a buffer */
+  public static final long DEFAULT_MAP_THRESHOLD = 4 * 1024 * 1024;
+
   /**
    * Regular expression used to find localization keys.  This translates to
    * matching a flex statements of the form:
@@ -51,24 +72,249 @@ public class FileScanner {
   private final String KEY_REGEX = "[Rr]esourceManager\\.(getInstance\\(\\)\\.)?getString\\s*\\([\"']([A-Za-z0-9_]+)[\"'],\\s*[\"']([A-Z0-9_]+)[\"']\\)";
   /** Position in the above regex group match where we will find the actual key name */
   private final int REGEX_KEY_INDEX = 3;
+  /** Compiled once per scanner, so that a scanner can be reused for many files */
+  private final Pattern keyPattern = Pattern.compile(KEY_REGEX);
+  private static final KeyCallMatcher DEFAULT_KEY_CALL_MATCHER = new KeyCallMatcher();
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+  private String matcherType = MATCHER_REGEX;
+  private KeyCallMatcher keyCallMatcher = DEFAULT_KEY_CALL_MATCHER;
+  private String keyPatterns = KeyCallMatcher.getDefaultPatterns().toString();
+  private Charset charset = Charset.defaultCharset();
+  private long mapThreshold = DEFAULT_MAP_THRESHOLD;
+  private CharsetDecoder decoder = null;
+  private ByteBuffer byteBuffer = null;
+  private CharBuffer charBuffer = null;
+  private final ByteCharSequence byteSequence = new ByteCharSequence();
+  private TaskMetrics metrics = null;
+  /** Size of the last file scanned, taken from its channel rather than by another stat */
+  private long lastFileSize = 0;
+  private int numKeysFound = 0;
+
+  public FileScanner() {
+    setCharset(charset);
+  }
+
+  /**
+   * Creates a scanner with the same settings as another scanner
+   * @param settings Scanner to copy settings from
+   */
+  public FileScanner(FileScanner settings) {
+    this.matcherType = settings.matcherType;
+    this.keyCallMatcher = settings.keyCallMatcher;
+    this.keyPatterns = settings.keyPatterns;
+    this.mapThreshold = settings.mapThreshold;
+    this.metrics = settings.metrics;
+    setCharset(settings.charset);
+  }
+
+  /**
+   * Selects how keys are matched, see MATCHER_REGEX and MATCHER_NATIVE
+   * @param matcherType Name of the matcher to use
+   */
+  public void setMatcher(String matcherType) {
+    if(!MATCHER_REGEX.equals(matcherType) && !MATCHER_NATIVE.equals(matcherType)) {
+      throw new IllegalArgumentException("Unknown matcher '" + matcherType + "', expected '" +
+        MATCHER_REGEX + "' or '" + MATCHER_NATIVE + "'");
+    }
+    this.matcherType = matcherType;
+  }
+
+  /**
+   * Sets the call patterns recognized by MATCHER_NATIVE, which are all matched in
+   * a single pass over each file
+   * @param patterns Patterns to recognize, see KeyCallMatcher.getDefaultPatterns()
+   * for the patterns used by default
+   */
+  public void setKeyPatterns(List<KeyPattern> patterns) {
+    keyCallMatcher = new KeyCallMatcher(patterns);
+    keyPatterns = patterns.toString();
+  }
+
+  /**
+   * Sets the character encoding of the scanned files, which defaults to the
+   * platform's default encoding
+   * @param encoding Name of the encoding, eg. "UTF-8"
+   */
+  public void setEncoding(String encoding) {
+    setCharset(Charset.forName(encoding));
+  }
+
+  private void setCharset(Charset charset) {
+    this.charset = charset;
+    this.decoder = charset.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  }
+
+  /**
+   * @param mapThreshold Files larger than this number of bytes are memory-mapped
+   * rather than read into a buffer when using MATCHER_NATIVE
+   */
+  public void setMapThreshold(long mapThreshold) {
+    this.mapThreshold = mapThreshold;
+  }
+
+  /**
+   * @param metrics Metrics to record the size, time and number of keys of each
+   * scanned file in, as part of the PHASE_SCAN phase.  Shared by copied scanners.
+   */
+  public void setMetrics(TaskMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /** @return Number of key calls found by this scanner, including repeated keys */
+  public int getNumKeysFound() {
+    return numKeysFound;
+  }
+
+  /**
+   * @return A string describing all settings which affect the keys found, so that
+   * results of scanners with different settings can be told apart
+   */
+  public String getSettings() {
+    String settings = "matcher=" + matcherType + ",encoding=" + charset.name();
+    if(MATCHER_NATIVE.equals(matcherType)) {
+      settings += ",patterns=" + keyPatterns;
+    }
+    return settings;
+  }
 
   public Set<String> scan(File inputFile) throws IOException {
+    return scan(inputFile, null);
+  }
+
+  /**
+   * Scans a file for locale keys, and optionally records where each key is used
+   * @param inputFile File to scan
+   * @param outputUsages List which every key reference is added to, in order of
+   * appearance, or null to only collect the keys.  Columns are counted in characters.
+   * @return The set of keys found in the file
+   * @throws IOException If the file could not be read
+   */
+  public Set<String> scan(File inputFile, List<KeyUsage> outputUsages) throws IOException {
+    long startTime = System.nanoTime();
+    int startKeysFound = numKeysFound;
+    Set<String> outputKeys;
+    if(MATCHER_NATIVE.equals(matcherType)) {
+      outputKeys = scanText(inputFile, outputUsages);
+    }
+    else {
+      outputKeys = scanLines(inputFile, outputUsages);
+    }
+
+    if(metrics != null) {
+      metrics.addFile(TaskMetrics.PHASE_SCAN, inputFile, lastFileSize, System.nanoTime() - startTime);
+      metrics.addCount(TaskMetrics.PHASE_SCAN, TaskMetrics.COUNT_KEYS, numKeysFound - startKeysFound);
+    }
+    return outputKeys;
+  }
+
+  /**
+   * Reads the entire file and matches keys with KeyCallMatcher.  For charsets in
+   * which every ASCII character is a single byte, and no other character contains
+   * a byte in the ASCII range, the keys are matched on the raw bytes without
+   * decoding the file at all, unless the positions of the keys are needed.
+   */
+  private Set<String> scanText(File inputFile, List<KeyUsage> outputUsages) throws IOException {
+    Set<String> outputKeys = new HashSet<String>();
+    ByteBuffer fileBytes = readBytes(inputFile);
+
+    // Columns would be counted in bytes rather than characters without decoding
+    if(isAsciiCompatible(charset) && (outputUsages == null || isSingleByte(charset))) {
+      byteSequence.reset(fileBytes);
+      numKeysFound += keyCallMatcher.match(byteSequence, outputKeys, outputUsages);
+    }
+    else {
+      numKeysFound += keyCallMatcher.match(decode(fileBytes), outputKeys, outputUsages);
+    }
+    return outputKeys;
+  }
+
+  /**
+   * Reads a file into the reusable byte buffer, or maps it into memory if it is
+   * larger than the map threshold
+   * @return A buffer containing the file between its position and limit
+   */
+  private ByteBuffer readBytes(File inputFile) throws IOException {
+    FileChannel channel = new FileInputStream(inputFile).getChannel();
+    try {
+      long size = channel.size();
+      lastFileSize = size;
+      if(size > mapThreshold) {
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+
+      if(byteBuffer == null || byteBuffer.capacity() < size) {
+        byteBuffer = ByteBuffer.allocate(Math.max((int)size, INITIAL_BUFFER_SIZE));
+      }
+      byteBuffer.clear();
+      byteBuffer.limit((int)size);
+      while(byteBuffer.hasRemaining() && channel.read(byteBuffer) >= 0) {
+        // Keep reading until the buffer is full or the file has been truncated
+      }
+      byteBuffer.flip();
+      return byteBuffer;
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  /** Decodes bytes into the reusable char buffer using the scanner's charset */
+  private CharBuffer decode(ByteBuffer fileBytes) throws IOException {
+    int maxChars = (int)Math.ceil(fileBytes.remaining() * (double)decoder.maxCharsPerByte());
+    if(charBuffer == null || charBuffer.capacity() < maxChars) {
+      charBuffer = CharBuffer.allocate(Math.max(maxChars, INITIAL_BUFFER_SIZE));
+    }
+    charBuffer.clear();
+    decoder.reset();
+    CoderResult result = decoder.decode(fileBytes, charBuffer, true);
+    if(!result.isUnderflow()) {
+      result.throwException();
+    }
+    decoder.flush(charBuffer);
+    charBuffer.flip();
+    return charBuffer;
+  }
+
+  /**
+   * @return True if the charset encodes ASCII as single bytes and never uses bytes
+   * in the ASCII range for anything else, ie. UTF-8 or one of the 8-bit charsets
+   */
+  private static boolean isAsciiCompatible(Charset charset) {
+    String name = charset.name();
+    return name.equals("US-ASCII") || name.equals("UTF-8") || name.startsWith("ISO-8859-") ||
+      name.startsWith("windows-125");
+  }
+
+  /** @return True if every character of the charset is a single byte */
+  private static boolean isSingleByte(Charset charset) {
+    return !charset.name().equals("UTF-8");
+  }
+
+  /** Reads through the file line-by-line, matching keys with KEY_REGEX */
+  private Set<String> scanLines(File inputFile, List<KeyUsage> outputUsages) throws IOException {
     Set<String> outputKeys = new HashSet<String>();
 
     // Open the file and read through it line-by-line
     FileInputStream fileStream = new FileInputStream(inputFile);
+    lastFileSize = fileStream.getChannel().size();
     DataInputStream dataStream = new DataInputStream(fileStream);
-    BufferedReader fileReader = new BufferedReader(new InputStreamReader(dataStream));
+    BufferedReader fileReader = new BufferedReader(new InputStreamReader(dataStream, charset));
     String fileLine;
-    Pattern keyPattern = Pattern.compile(KEY_REGEX);
-    int numKeysFound = 0;
+    int lineNumber = 0;
 
     while((fileLine = fileReader.readLine()) != null) {
+      lineNumber++;
       try {
         Matcher matcher = keyPattern.matcher(fileLine);
         while(matcher.find()) {
           outputKeys.add(matcher.group(REGEX_KEY_INDEX));
           numKeysFound++;
+          if(outputUsages != null) {
+            outputUsages.add(new KeyUsage(matcher.group(REGEX_KEY_INDEX), lineNumber, matcher.start(REGEX_KEY_INDEX) + 1));
+          }
         }
       }
       catch(IllegalStateException e) {
@@ -76,7 +322,6 @@ public class FileScanner {
       }
     }
 
-//    System.out.println(inputFile.getName() + ": " + numKeysFound + " keys found");
     dataStream.close();
     return outputKeys;
   }
@@ -29,71 +29,340 @@
 package se.singbox.scanner;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-/** Scans a set of folders for a file pattern */
+/**
+ * Scans a set of folders for a file pattern.  The attributes of each directory
+ * entry are read only once, and with more than one thread, subdirectories are
+ * walked in parallel on a fork-join pool, which helps a lot on network file
+ * systems where every directory listing has a round-trip latency.
+ */
 public class FolderScanner {
+  /** Hidden files are flagged with a DOS attribute on Windows, and by a leading dot elsewhere */
+  private static final boolean USE_DOS_ATTRIBUTES = File.separatorChar == '\\';
+
+  private int numThreads = 1;
+  private int shardIndex = 0;
+  private int shardCount = 1;
+  /** Matches excluded files and directories, relative to the scanned folder */
+  private final List<PathMatcher> excludeMatchers = new ArrayList<PathMatcher>();
+
+  /**
+   * @param numThreads Number of threads to walk directories with, 1 walks them serially
+   */
+  public void setThreads(int numThreads) {
+    if(numThreads < 1) {
+      throw new IllegalArgumentException("Number of threads must be at least 1");
+    }
+    this.numThreads = numThreads;
+  }
+
+  /**
+   * Only finds the files belonging to one of several shards, so that a folder can
+   * be scanned in parts by separate processes.  A file's shard depends only on its
+   * path relative to the scanned folder, see getShard().
+   * @param shardIndex The shard to find files for, from 0 to shardCount - 1
+   * @param shardCount Number of shards, 1 finds all files
+   */
+  public void setShard(int shardIndex, int shardCount) {
+    if(shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+      throw new IllegalArgumentException("Shard " + shardIndex + " of " + shardCount + " does not exist");
+    }
+    this.shardIndex = shardIndex;
+    this.shardCount = shardCount;
+  }
+
+  /**
+   * Assigns a file to a shard using the FNV-1a hash of its relative path, which
+   * gives the same result on every platform and JVM
+   * @param relativePath Path relative to the scanned folder, using '/' as the separator
+   * @param shardCount Number of shards
+   * @return The file's shard, from 0 to shardCount - 1
+   */
+  public static int getShard(String relativePath, int shardCount) {
+    int hash = 0x811c9dc5;
+    for(int i = 0; i < relativePath.length(); i++) {
+      hash ^= relativePath.charAt(i);
+      hash *= 0x01000193;
+    }
+    return (int)((hash & 0xffffffffL) % shardCount);
+  }
+
+  private boolean isInShard(Path root, Path file) {
+    if(shardCount == 1) {
+      return true;
+    }
+    String relativePath = root.relativize(file).toString();
+    if(File.separatorChar != '/') {
+      relativePath = relativePath.replace(File.separatorChar, '/');
+    }
+    return getShard(relativePath, shardCount) == shardIndex;
+  }
+
+  /**
+   * Excludes files and directories matching a glob pattern relative to the scanned
+   * folder, eg. "bin-debug/**" or "**&#47;*Test.as".  As in Ant, a leading "**&#47;"
+   * also matches files in the scanned folder itself, and a pattern ending with
+   * "/**" excludes the directory itself so that it is never walked.
+   * @param pattern Glob pattern using '/' as the separator
+   */
+  public void addExclude(String pattern) {
+    FileSystem fileSystem = FileSystems.getDefault();
+    pattern = pattern.trim();
+    excludeMatchers.add(fileSystem.getPathMatcher("glob:" + pattern));
+    if(pattern.startsWith("**/")) {
+      addExclude(pattern.substring(3));
+    }
+    else if(pattern.endsWith("/**")) {
+      excludeMatchers.add(fileSystem.getPathMatcher("glob:" + pattern.substring(0, pattern.length() - 3)));
+    }
+  }
+
+  /**
+   * @param patterns Comma separated list of glob patterns, see addExclude()
+   */
+  public void setExcludes(String patterns) {
+    for(String pattern : patterns.split(",")) {
+      if(pattern.trim().length() > 0) {
+        addExclude(pattern);
+      }
+    }
+  }
+
   /**
    * Returns a collection of files underneath the target folder, ignoring
    * all hidden files/directories
    * @param folderName The folder to scan
    * @param extension Scan only files with this extension, or null to scan all files.
    * Multiple extensions should be comma separated, eg. "xml,as,mxml"
-   * @return The collection of matching files
+   * @return The collection of matching files, sorted by path
    */
   public Collection<File> scanFolder(String folderName, String extension) {
-    final Collection<File> allFiles = new ArrayList<File>();
-    addFilesRecursively(new File(folderName), allFiles, extension);
-//    System.out.println(folderName + ": found " + allFiles.size() + " files");
-    return allFiles;
+    final Queue<File> allFiles = new ConcurrentLinkedQueue<File>();
+    walkFolder(folderName, extension, new FileHandler() {
+      public void handleFile(File file) {
+        allFiles.add(file);
+      }
+    });
+
+    List<File> sortedFiles = new ArrayList<File>(allFiles);
+    Collections.sort(sortedFiles);
+//    System.out.println(folderName + ": found " + sortedFiles.size() + " files");
+    return sortedFiles;
+  }
+
+  /**
+   * Walks the target folder, passing each matching file to the handler as soon as
+   * it is found.  Hidden files/directories are ignored.
+   * @param folderName The folder to scan
+   * @param extension Scan only files with this extension, or null to scan all files.
+   * Multiple extensions should be comma separated, eg. "xml,as,mxml"
+   * @param handler Receives the matching files, in no particular order
+   */
+  public void walkFolder(String folderName, String extension, FileHandler handler) {
+    Path root = Paths.get(folderName);
+    Set<String> extensions = parseExtensions(extension);
+
+    if(numThreads > 1) {
+      ForkJoinPool pool = new ForkJoinPool(numThreads);
+      try {
+        pool.invoke(new WalkTask(root, root, extensions, handler));
+      }
+      finally {
+        pool.shutdown();
+      }
+    }
+    else {
+      addFilesRecursively(root, root, extensions, handler);
+    }
   }
 
-  private static void addFilesRecursively(File file, Collection<File> all, String extension) {
-    final File[] children = file.listFiles();
-    if(children != null) {
-      for(File child : children) {
+  /**
+   * Checks whether a single file would be found by walking a folder, eg. when
+   * told about a change to the file by a file system watcher
+   * @param folderName The folder which would be scanned
+   * @param extension Only accept files with this extension, or null to accept all files.
+   * Multiple extensions should be comma separated, eg. "xml,as,mxml"
+   * @param file The file to check
+   * @return True if the file exists, is not hidden or excluded, has the right extension
+   * and belongs to this scanner's shard
+   */
+  public boolean accepts(String folderName, String extension, File file) {
+    Path root = Paths.get(folderName);
+    Path path = file.toPath();
+    BasicFileAttributes attributes = readAttributes(path);
+    if(attributes == null || !attributes.isRegularFile()) {
+      return false;
+    }
+
+    Set<String> extensions = parseExtensions(extension);
+    if(extensions != null && !extensions.contains(getExtension(path))) {
+      return false;
+    }
+    else if(!isInShard(root, path)) {
+      return false;
+    }
+
+    // The file and every directory between it and the root must be visible and included
+    for(Path current = path; current != null && !current.equals(root); current = current.getParent()) {
+      if(current != path) {
+        attributes = readAttributes(current);
+      }
+      if(attributes == null || isHidden(current, attributes) || isExcluded(root, current)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Walks one directory and all of its subdirectories in parallel */
+  private class WalkTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final Path root;
+    private final Path dir;
+    private final Set<String> extensions;
+    private final FileHandler handler;
+
+    WalkTask(Path root, Path dir, Set<String> extensions, FileHandler handler) {
+      this.root = root;
+      this.dir = dir;
+      this.extensions = extensions;
+      this.handler = handler;
+    }
+
+    protected void compute() {
+      List<WalkTask> subTasks = new ArrayList<WalkTask>();
+      for(Path subDir : addFiles(root, dir, extensions, handler)) {
+        subTasks.add(new WalkTask(root, subDir, extensions, handler));
+      }
+      invokeAll(subTasks);
+    }
+  }
+
+  private void addFilesRecursively(Path root, Path dir, Set<String> extensions, FileHandler handler) {
+    for(Path subDir : addFiles(root, dir, extensions, handler)) {
+      addFilesRecursively(root, subDir, extensions, handler);
+    }
+  }
+
+  /**
+   * Passes all matching files in a single directory to the handler
+   * @return The subdirectories which should be walked next
+   */
+  private List<Path> addFiles(Path root, Path dir, Set<String> extensions, FileHandler handler) {
+    List<Path> subDirs = new ArrayList<Path>();
+    DirectoryStream<Path> children;
+    try {
+      children = Files.newDirectoryStream(dir);
+    }
+    catch(IOException e) {
+      // Unreadable directories are skipped, just like File.listFiles() returning null
+      return subDirs;
+    }
+
+    try {
+      for(Path child : children) {
+        BasicFileAttributes attributes = readAttributes(child);
         // Filter out all hidden files
-        if(!child.isHidden()) {
-          if(child.isFile()) {
-            if(extension != null) {
-              if(checkExtension(child.getName(), extension)) {
-                all.add(child);
-              }
-            }
-            else {
-              all.add(child);
-            }
-          }
-          else if(child.isDirectory()) {
-            addFilesRecursively(child, all, extension);
+        if(attributes == null || isHidden(child, attributes)) {
+          continue;
+        }
+
+        if(attributes.isRegularFile()) {
+          if((extensions == null || extensions.contains(getExtension(child))) && !isExcluded(root, child) &&
+             isInShard(root, child)) {
+            handler.handleFile(child.toFile());
           }
         }
+        else if(attributes.isDirectory() && !isExcluded(root, child)) {
+          subDirs.add(child);
+        }
+      }
+    }
+    finally {
+      try {
+        children.close();
       }
+      catch(IOException e) {
+        // Nothing left to read
+      }
+    }
+    return subDirs;
+  }
+
+  /** @return The attributes of the file, or null if they could not be read (eg. a broken link) */
+  private static BasicFileAttributes readAttributes(Path file) {
+    try {
+      if(USE_DOS_ATTRIBUTES) {
+        return Files.readAttributes(file, DosFileAttributes.class);
+      }
+      return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+    catch(IOException e) {
+      return null;
+    }
+  }
+
+  private static boolean isHidden(Path file, BasicFileAttributes attributes) {
+    if(attributes instanceof DosFileAttributes) {
+      return ((DosFileAttributes)attributes).isHidden();
     }
+    return file.getFileName().toString().startsWith(".");
+  }
+
+  private boolean isExcluded(Path root, Path file) {
+    if(excludeMatchers.isEmpty()) {
+      return false;
+    }
+    Path relativePath = root.relativize(file);
+    for(PathMatcher matcher : excludeMatchers) {
+      if(matcher.matches(relativePath)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /**
-   * Checks to make sure that the filename has the given extension
-   * @param filename Filename
-   * @param extension File extension (without the ".")
-   * @return True if the file is of type extension
+   * Splits a comma separated list of extensions into a set
+   * @param extension File extensions (without the "."), or null for all files
+   * @return The set of extensions, or null to match all files
    */
-  private static boolean checkExtension(String filename, String extension) {
-    boolean result = false;
-    int dotIndex = filename.lastIndexOf('.');
-    String splitExtensions[] = extension.split(",");
-
-    if(dotIndex > 0) {
-      String fileExtension = filename.substring(dotIndex + 1, filename.length());
-      for(String splitExtension : splitExtensions) {
-        if(splitExtension.equals(fileExtension)) {
-          result = true;
-          break;
-        }
-      }
+  private static Set<String> parseExtensions(String extension) {
+    if(extension == null) {
+      return null;
     }
+    Set<String> extensions = new HashSet<String>();
+    Collections.addAll(extensions, extension.split(","));
+    return extensions;
+  }
 
-    return result;
+  /**
+   * @param file File to check
+   * @return The file's extension (without the "."), or null if it has none
+   */
+  private static String getExtension(Path file) {
+    String filename = file.getFileName().toString();
+    int dotIndex = filename.lastIndexOf('.');
+    return dotIndex > 0 ? filename.substring(dotIndex + 1) : null;
   }
 }
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the keys found in every source file and the index of every locale in
+ * memory, so that a change to a single file can be checked without scanning or
+ * loading anything else.  For each key, the number of source files using it is
+ * counted; a change is reported only when a key starts or stops being used, or
+ * when a locale starts or stops defining a used key.  Not thread safe.
+ */
+public class IncrementalKeyChecker {
+  private final FileScanner scanner;
+  private final boolean findUnused;
+  private final Map<File, Set<String>> sourceKeys = new HashMap<File, Set<String>>();
+  /** Number of source files using each key */
+  private final Map<String, Integer> keyUsage = new HashMap<String, Integer>();
+  /** Sorted by file, so that locales are always reported in the same order */
+  private final Map<File, LocaleIndex> locales = new TreeMap<File, LocaleIndex>();
+
+  /**
+   * @param scanner Scanner to scan changed source files with
+   * @param findUnused Whether to also report keys which the source code does not use
+   */
+  public IncrementalKeyChecker(FileScanner scanner, boolean findUnused) {
+    this.scanner = scanner;
+    this.findUnused = findUnused;
+  }
+
+  /**
+   * Scans an initial set of source files in parallel, without reporting changes
+   * @param files Source files to scan
+   * @param numThreads Number of threads to scan with
+   * @throws IOException If any of the files could not be read
+   */
+  public void addSourceFiles(Collection<File> files, int numThreads) throws IOException {
+    final Map<File, Set<String>> scannedKeys = new ConcurrentHashMap<File, Set<String>>();
+    ParallelScanner parallelScanner = new ParallelScanner(numThreads, scanner) {
+      protected Set<String> scanFile(FileScanner fileScanner, File file) throws IOException {
+        Set<String> keys = super.scanFile(fileScanner, file);
+        scannedKeys.put(file, keys);
+        return keys;
+      }
+    };
+    parallelScanner.scan(files);
+
+    for(Map.Entry<File, Set<String>> entry : scannedKeys.entrySet()) {
+      putSourceKeys(entry.getKey(), entry.getValue(), null, null);
+    }
+  }
+
+  /**
+   * Loads an initial set of locale files, without reporting changes
+   * @param files Locale properties files to load
+   * @throws IOException If any of the files could not be read
+   */
+  public void addLocaleFiles(Collection<File> files) throws IOException {
+    for(File file : files) {
+      locales.put(file, LocaleIndex.load(file));
+    }
+  }
+
+  /** @return A copy of the set of source files which have been scanned */
+  public Set<File> getSourceFiles() {
+    return new HashSet<File>(sourceKeys.keySet());
+  }
+
+  /** @return A copy of the set of locale files which have been loaded */
+  public Set<File> getLocaleFiles() {
+    return new HashSet<File>(locales.keySet());
+  }
+
+  /** @return Every key used by at least one source file */
+  public Set<String> getUsedKeys() {
+    return Collections.unmodifiableSet(keyUsage.keySet());
+  }
+
+  /**
+   * Checks every locale against the keys currently in use
+   * @return One result per locale, ordered by locale file
+   */
+  public List<LocaleCheckResult> checkAll() {
+    LocaleKeyChecker checker = new LocaleKeyChecker();
+    List<LocaleCheckResult> results = new ArrayList<LocaleCheckResult>(locales.size());
+    for(LocaleIndex locale : locales.values()) {
+      results.add(checker.check(locale, keyUsage.keySet(), findUnused));
+    }
+    return results;
+  }
+
+  /**
+   * Scans a new or changed source file
+   * @param file The source file
+   * @return Messages describing how the results have changed
+   * @throws IOException If the file could not be read
+   */
+  public List<String> updateSourceFile(File file) throws IOException {
+    List<String> changes = new ArrayList<String>();
+    Set<String> keys = scanner.scan(file);
+    Set<String> oldKeys = sourceKeys.get(file);
+    if(oldKeys != null && oldKeys.equals(keys)) {
+      return changes;
+    }
+
+    List<String> newlyUsed = new ArrayList<String>();
+    List<String> noLongerUsed = new ArrayList<String>();
+    if(oldKeys != null) {
+      removeSourceKeys(file, noLongerUsed);
+    }
+    putSourceKeys(file, keys, newlyUsed, noLongerUsed);
+    reportUsageChanges(file, newlyUsed, noLongerUsed, changes);
+    return changes;
+  }
+
+  /**
+   * Forgets a deleted source file, or all source files underneath a deleted directory
+   * @param file The deleted file or directory
+   * @return Messages describing how the results have changed
+   */
+  public List<String> removeSourceFiles(File file) {
+    List<String> changes = new ArrayList<String>();
+    String dirPrefix = file.getPath() + File.separator;
+    List<String> noLongerUsed = new ArrayList<String>();
+    for(File sourceFile : new ArrayList<File>(sourceKeys.keySet())) {
+      if(sourceFile.equals(file) || sourceFile.getPath().startsWith(dirPrefix)) {
+        removeSourceKeys(sourceFile, noLongerUsed);
+      }
+    }
+    reportUsageChanges(file, Collections.<String>emptyList(), noLongerUsed, changes);
+    return changes;
+  }
+
+  /**
+   * Reloads a new or changed locale file
+   * @param file The locale properties file
+   * @return Messages describing how the results have changed
+   * @throws IOException If the file could not be read
+   */
+  public List<String> updateLocaleFile(File file) throws IOException {
+    LocaleIndex locale = LocaleIndex.load(file);
+    LocaleIndex oldLocale = locales.put(file, locale);
+    Set<String> oldKeys = oldLocale != null ? oldLocale.keySet() : Collections.<String>emptySet();
+    return reportLocaleChanges(locale.getLocale(), oldKeys, locale.keySet());
+  }
+
+  /**
+   * Forgets a deleted locale file, or all locale files underneath a deleted directory
+   * @param file The deleted file or directory
+   * @return Messages describing how the results have changed
+   */
+  public List<String> removeLocaleFiles(File file) {
+    List<String> changes = new ArrayList<String>();
+    String dirPrefix = file.getPath() + File.separator;
+    for(File localeFile : new ArrayList<File>(locales.keySet())) {
+      if(localeFile.equals(file) || localeFile.getPath().startsWith(dirPrefix)) {
+        LocaleIndex oldLocale = locales.remove(localeFile);
+        changes.addAll(reportLocaleChanges(oldLocale.getLocale(), oldLocale.keySet(), Collections.<String>emptySet()));
+      }
+    }
+    return changes;
+  }
+
+  private void putSourceKeys(File file, Set<String> keys, List<String> newlyUsed, List<String> noLongerUsed) {
+    sourceKeys.put(file, keys);
+    for(String key : keys) {
+      Integer count = keyUsage.get(key);
+      if(count == null) {
+        keyUsage.put(key, 1);
+        // A key removed and added again in the same update has not changed at all
+        if(noLongerUsed == null || !noLongerUsed.remove(key)) {
+          if(newlyUsed != null) {
+            newlyUsed.add(key);
+          }
+        }
+      }
+      else {
+        keyUsage.put(key, count + 1);
+      }
+    }
+  }
+
+  private void removeSourceKeys(File file, List<String> noLongerUsed) {
+    Set<String> keys = sourceKeys.remove(file);
+    if(keys == null) {
+      return;
+    }
+    for(String key : keys) {
+      int count = keyUsage.get(key);
+      if(count == 1) {
+        keyUsage.remove(key);
+        noLongerUsed.add(key);
+      }
+      else {
+        keyUsage.put(key, count - 1);
+      }
+    }
+  }
+
+  private void reportUsageChanges(File file, List<String> newlyUsed, List<String> noLongerUsed, List<String> changes) {
+    Collections.sort(newlyUsed);
+    Collections.sort(noLongerUsed);
+    for(LocaleIndex locale : locales.values()) {
+      for(String key : newlyUsed) {
+        if(!locale.contains(key)) {
+          changes.add("Missing locale key '" + key + "' in " + locale.getLocale() + " (used in " + file.getName() + ")");
+        }
+      }
+      for(String key : noLongerUsed) {
+        if(!locale.contains(key)) {
+          changes.add("Locale key '" + key + "' is no longer used, and no longer missing in " + locale.getLocale());
+        }
+        else if(findUnused) {
+          changes.add("Unused locale key '" + key + "' in " + locale.getLocale());
+        }
+      }
+    }
+  }
+
+  private List<String> reportLocaleChanges(String localeName, Set<String> oldKeys, Set<String> newKeys) {
+    List<String> changes = new ArrayList<String>();
+    for(String key : sortedDifference(oldKeys, newKeys)) {
+      if(keyUsage.containsKey(key)) {
+        changes.add("Missing locale key '" + key + "' in " + localeName);
+      }
+    }
+    for(String key : sortedDifference(newKeys, oldKeys)) {
+      if(keyUsage.containsKey(key)) {
+        changes.add("Locale key '" + key + "' is no longer missing in " + localeName);
+      }
+      else if(findUnused) {
+        changes.add("Unused locale key '" + key + "' in " + localeName);
+      }
+    }
+    return changes;
+  }
+
+  /** @return The keys in the first set but not in the second, sorted by name */
+  private static List<String> sortedDifference(Set<String> keys, Set<String> otherKeys) {
+    List<String> difference = new ArrayList<String>();
+    for(String key : keys) {
+      if(!otherKeys.contains(key)) {
+        difference.add(key);
+      }
+    }
+    Collections.sort(difference);
+    return difference;
+  }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.scanner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Hand-written replacement for FileScanner's KEY_REGEX, which recognizes any
+ * number of KeyPatterns in a single pass over the text.  The literal anchors of
+ * all patterns are compiled into one Aho-Corasick automaton, so the cost of a
+ * scan does not grow with the number of patterns.  Only where an anchor is
+ * found is the call following it parsed by hand, eg. for the default patterns:
+ * <pre>
+ * [Rr]esourceManager . [getInstance ( ) .] getString ( 'bundle' , 'KEY' )
+ * </pre>
+ * Any amount of whitespace, including newlines, is allowed between the tokens.
+ * Keys may contain [A-Z0-9_], just as with the regular expression, and the
+ * quotes around a key must match.  Apart from the key strings themselves,
+ * matching does not allocate any objects.  A matcher keeps no state between
+ * calls, so one instance may be shared between threads.
+ */
+public class KeyCallMatcher {
+  /** Anchors are restricted to ASCII, so every state needs only this many transitions */
+  private static final int ALPHABET_SIZE = 128;
+  /** Arguments longer than this are assumed to be broken code and stop the match */
+  private static final int MAX_ARGUMENT_LENGTH = 4096;
+
+  private final KeyPattern[] patterns;
+  /** Transition table of the automaton, indexed by state * ALPHABET_SIZE + character */
+  private final int[] transitions;
+  /** Indexes of the patterns whose anchor ends in each state, or null for none */
+  private final int[][] matchedPatterns;
+
+  /** Creates a matcher for the default getString() patterns */
+  public KeyCallMatcher() {
+    this(getDefaultPatterns());
+  }
+
+  /**
+   * @param patterns Patterns to recognize.  When several patterns share an anchor,
+   * the first one which matches a call is used.
+   */
+  public KeyCallMatcher(List<KeyPattern> patterns) {
+    this.patterns = patterns.toArray(new KeyPattern[patterns.size()]);
+    for(KeyPattern pattern : this.patterns) {
+      pattern.validate();
+    }
+
+    // Build a trie of all anchors
+    List<int[]> children = new ArrayList<int[]>();
+    List<int[]> outputs = new ArrayList<int[]>();
+    children.add(newState());
+    outputs.add(null);
+    for(int p = 0; p < this.patterns.length; p++) {
+      String anchor = this.patterns[p].getAnchor();
+      int state = 0;
+      for(int i = 0; i < anchor.length(); i++) {
+        int next = children.get(state)[anchor.charAt(i)];
+        if(next < 0) {
+          next = children.size();
+          children.get(state)[anchor.charAt(i)] = next;
+          children.add(newState());
+          outputs.add(null);
+        }
+        state = next;
+      }
+      outputs.set(state, append(outputs.get(state), p));
+    }
+
+    // Turn the trie into a complete automaton, breadth first so that the failure
+    // state of every node is finished before its children are visited
+    int numStates = children.size();
+    transitions = new int[numStates * ALPHABET_SIZE];
+    matchedPatterns = new int[numStates][];
+    int[] failure = new int[numStates];
+    Queue<Integer> pending = new LinkedList<Integer>();
+    for(int c = 0; c < ALPHABET_SIZE; c++) {
+      int child = children.get(0)[c];
+      if(child > 0) {
+        transitions[c] = child;
+        pending.add(child);
+      }
+    }
+    while(!pending.isEmpty()) {
+      int state = pending.remove();
+      int[] inherited = outputs.get(failure[state]);
+      if(inherited != null) {
+        int[] output = outputs.get(state);
+        for(int p : inherited) {
+          output = append(output, p);
+        }
+        outputs.set(state, output);
+      }
+      matchedPatterns[state] = outputs.get(state);
+
+      for(int c = 0; c < ALPHABET_SIZE; c++) {
+        int child = children.get(state)[c];
+        int fallback = transitions[failure[state] * ALPHABET_SIZE + c];
+        if(child > 0) {
+          failure[child] = fallback;
+          transitions[state * ALPHABET_SIZE + c] = child;
+          pending.add(child);
+        }
+        else {
+          transitions[state * ALPHABET_SIZE + c] = fallback;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The patterns used when none are configured, which match
+   * ResourceManager.getInstance().getString('myResources', 'KEY') and
+   * resourceManager.getString('myResources', 'KEY')
+   */
+  public static List<KeyPattern> getDefaultPatterns() {
+    List<KeyPattern> defaultPatterns = new ArrayList<KeyPattern>();
+    defaultPatterns.add(new KeyPattern("ResourceManager", "getString", 2));
+    defaultPatterns.add(new KeyPattern("resourceManager", "getString", 2));
+    return defaultPatterns;
+  }
+
+  private static int[] newState() {
+    int[] state = new int[ALPHABET_SIZE];
+    Arrays.fill(state, -1);
+    return state;
+  }
+
+  private static int[] append(int[] array, int value) {
+    if(array == null) {
+      return new int[] {value};
+    }
+    int[] result = Arrays.copyOf(array, array.length + 1);
+    result[array.length] = value;
+    return result;
+  }
+
+  /**
+   * Finds all locale keys in the given text
+   * @param text Text to search, typically the entire contents of a source file
+   * @param outputKeys Set which found keys are added to
+   * @return The number of key references found, including duplicates
+   */
+  public int match(CharSequence text, Set<String> outputKeys) {
+    return match(text, outputKeys, null);
+  }
+
+  /**
+   * Finds all locale keys in the given text, and where they are used
+   * @param text Text to search, typically the entire contents of a source file
+   * @param outputKeys Set which found keys are added to
+   * @param outputUsages List which the position of each key reference is added to,
+   * in order of appearance, or null to only collect the keys.  Columns are counted
+   * in characters of the text.
+   * @return The number of key references found, including duplicates
+   */
+  public int match(CharSequence text, Set<String> outputKeys, List<KeyUsage> outputUsages) {
+    int numKeysFound = 0;
+    int length = text.length();
+    int state = 0;
+    // Lines are only counted up to the last key found, and only if positions are needed
+    int line = 1;
+    int lineStart = 0;
+    int countedUpTo = 0;
+
+    for(int position = 0; position < length; position++) {
+      char c = text.charAt(position);
+      state = c < ALPHABET_SIZE ? transitions[state * ALPHABET_SIZE + c] : 0;
+      if(matchedPatterns[state] != null) {
+        for(int p : matchedPatterns[state]) {
+          int keyStart = parseCall(patterns[p], text, position + 1, length);
+          if(keyStart >= 0) {
+            // The key runs up to its closing quote, which parseKey() has already verified
+            int keyEnd = keyStart;
+            while(text.charAt(keyEnd) != '\'' && text.charAt(keyEnd) != '"') {
+              keyEnd++;
+            }
+            String key = text.subSequence(keyStart, keyEnd).toString();
+            outputKeys.add(key);
+            numKeysFound++;
+            if(outputUsages != null) {
+              for(; countedUpTo < keyStart; countedUpTo++) {
+                if(text.charAt(countedUpTo) == '\n') {
+                  line++;
+                  lineStart = countedUpTo + 1;
+                }
+              }
+              outputUsages.add(new KeyUsage(key, line, keyStart - lineStart + 1));
+            }
+            break;
+          }
+        }
+      }
+    }
+
+    return numKeysFound;
+  }
+
+  /**
+   * Parses the rest of a call following a pattern's anchor
+   * @return The start position of the key string, or -1 if this is not a valid call
+   */
+  private static int parseCall(KeyPattern pattern, CharSequence text, int position, int length) {
+    String method = pattern.getMethod();
+    if(method != null) {
+      // Members other than the method must be calls without arguments, eg. getInstance()
+      while(true) {
+        position = expect(text, skipWhitespace(text, position, length), length, '.');
+        if(position < 0) {
+          return -1;
+        }
+        position = skipWhitespace(text, position, length);
+        int memberEnd = skipIdentifier(text, position, length);
+        if(memberEnd == position) {
+          return -1;
+        }
+        else if(regionEquals(text, position, memberEnd, method)) {
+          position = memberEnd;
+          break;
+        }
+        position = expect(text, skipWhitespace(text, memberEnd, length), length, '(');
+        position = expect(text, skipWhitespace(text, position, length), length, ')');
+      }
+    }
+
+    position = expect(text, skipWhitespace(text, position, length), length, '(');
+    return parseArguments(pattern, text, position, length);
+  }
+
+  /**
+   * Parses an argument list up to the closing parenthesis, looking for the key
+   * @return The start position of the key string, or -1 if no key was found
+   */
+  private static int parseArguments(KeyPattern pattern, CharSequence text, int position, int length) {
+    String keyAttribute = pattern.getKeyAttribute();
+    int keyStart = -1;
+    int argument = 1;
+
+    while(position >= 0) {
+      position = skipWhitespace(text, position, length);
+      if(position >= length) {
+        return -1;
+      }
+
+      boolean isKey;
+      if(keyAttribute != null) {
+        // Named arguments have the form: name = 'value'
+        int nameEnd = skipIdentifier(text, position, length);
+        int valueStart = expect(text, skipWhitespace(text, nameEnd, length), length, '=');
+        isKey = valueStart >= 0 && regionEquals(text, position, nameEnd, keyAttribute);
+        if(isKey) {
+          position = skipWhitespace(text, valueStart, length);
+        }
+      }
+      else {
+        isKey = argument == pattern.getKeyArgument();
+      }
+
+      if(isKey) {
+        int keyEnd = parseKey(text, position, length);
+        if(keyEnd < 0) {
+          return -1;
+        }
+        keyStart = position + 1;
+        position = keyEnd;
+      }
+      else {
+        position = skipArgument(text, position, length);
+      }
+
+      position = skipWhitespace(text, position, length);
+      if(position < 0 || position >= length) {
+        return -1;
+      }
+      else if(text.charAt(position) == ')') {
+        return keyStart;
+      }
+      position = expect(text, position, length, ',');
+      argument++;
+    }
+    return -1;
+  }
+
+  /**
+   * Parses a quoted key
+   * @return The position after the closing quote, or -1 if no valid key was found
+   */
+  private static int parseKey(CharSequence text, int position, int length) {
+    if(position < 0 || position >= length) {
+      return -1;
+    }
+    char quote = text.charAt(position);
+    if(quote != '\'' && quote != '"') {
+      return -1;
+    }
+
+    int start = ++position;
+    while(position < length) {
+      char c = text.charAt(position);
+      if(c == quote) {
+        return position > start ? position + 1 : -1;
+      }
+      else if(!((c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_')) {
+        return -1;
+      }
+      position++;
+    }
+    return -1;
+  }
+
+  /**
+   * Skips over an argument which is not the key, including any nested brackets
+   * and string literals
+   * @return The position of the ',' or ')' ending the argument, or -1 if there is none
+   */
+  private static int skipArgument(CharSequence text, int position, int length) {
+    int depth = 0;
+    int end = Math.min(length, position + MAX_ARGUMENT_LENGTH);
+    while(position < end) {
+      char c = text.charAt(position);
+      if(c == '\'' || c == '"') {
+        // Skip the string literal, minding escaped quotes
+        position++;
+        while(position < end && text.charAt(position) != c) {
+          position += text.charAt(position) == '\\' ? 2 : 1;
+        }
+      }
+      else if(c == '(' || c == '[' || c == '{') {
+        depth++;
+      }
+      else if(c == ')' || c == ']' || c == '}') {
+        if(depth == 0) {
+          return c == ')' ? position : -1;
+        }
+        depth--;
+      }
+      else if(c == ',' && depth == 0) {
+        return position;
+      }
+      position++;
+    }
+    return -1;
+  }
+
+  private static int expect(CharSequence text, int position, int length, char expected) {
+    if(position < 0 || position >= length || text.charAt(position) != expected) {
+      return -1;
+    }
+    return position + 1;
+  }
+
+  private static int skipWhitespace(CharSequence text, int position, int length) {
+    if(position < 0) {
+      return -1;
+    }
+    while(position < length && Character.isWhitespace(text.charAt(position))) {
+      position++;
+    }
+    return position;
+  }
+
+  private static int skipIdentifier(CharSequence text, int position, int length) {
+    if(position < 0) {
+      return -1;
+    }
+    while(position < length && Character.isJavaIdentifierPart(text.charAt(position))) {
+      position++;
+    }
+    return position;
+  }
+
+  private static boolean regionEquals(CharSequence text, int start, int end, String expected) {
+    if(start < 0 || end - start != expected.length()) {
+      return false;
+    }
+    for(int i = 0; i < expected.length(); i++) {
+      if(text.charAt(start + i) != expected.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.scanner;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A keys &times; locales matrix telling which keys each locale defines, along with
+ * the keys used in the source code.  Each locale's column is a BitSet indexed by
+ * the key IDs of a KeySymbolTable, so missing keys are computed as
+ * <code>used AND NOT defined</code> and unused keys as <code>defined AND NOT used</code>,
+ * a machine word at a time.
+ */
+public class KeyCoverage {
+  private final KeySymbolTable symbols;
+  private final BitSet usedKeys;
+  private final List<String> locales;
+  private final List<BitSet> definedKeys;
+
+  /**
+   * @param symbols Symbol table which all key IDs refer to
+   * @param usedKeys IDs of the keys used in the source code
+   * @param locales Names of the locales
+   * @param definedKeys IDs of the keys defined by each locale, in the same order as locales
+   */
+  public KeyCoverage(KeySymbolTable symbols, BitSet usedKeys, List<String> locales, List<BitSet> definedKeys) {
+    this.symbols = symbols;
+    this.usedKeys = usedKeys;
+    this.locales = Collections.unmodifiableList(locales);
+    this.definedKeys = definedKeys;
+  }
+
+  public KeySymbolTable getSymbols() {
+    return symbols;
+  }
+
+  /** @return The names of all locales, in the order of their locale indexes */
+  public List<String> getLocales() {
+    return locales;
+  }
+
+  /**
+   * @param key Key to look up
+   * @param localeIndex Position of the locale in getLocales()
+   * @return True if the locale defines the key
+   */
+  public boolean isDefined(String key, int localeIndex) {
+    int id = symbols.getId(key);
+    return id >= 0 && definedKeys.get(localeIndex).get(id);
+  }
+
+  /**
+   * @param key Key to look up
+   * @return True if the key is used in the source code
+   */
+  public boolean isUsed(String key) {
+    int id = symbols.getId(key);
+    return id >= 0 && usedKeys.get(id);
+  }
+
+  /**
+   * @param localeIndex Position of the locale in getLocales()
+   * @return IDs of the keys used in the source code but not defined by the locale
+   */
+  public BitSet getMissingKeys(int localeIndex) {
+    BitSet missingKeys = (BitSet)usedKeys.clone();
+    missingKeys.andNot(definedKeys.get(localeIndex));
+    return missingKeys;
+  }
+
+  /**
+   * @param localeIndex Position of the locale in getLocales()
+   * @return IDs of the keys defined by the locale but not used in the source code
+   */
+  public BitSet getUnusedKeys(int localeIndex) {
+    BitSet unusedKeys = (BitSet)definedKeys.get(localeIndex).clone();
+    unusedKeys.andNot(usedKeys);
+    return unusedKeys;
+  }
+
+  /**
+   * @param localeIndex Position of the locale in getLocales()
+   * @param findUnused Whether to also list the keys which the source code does not use
+   * @return The check result for the locale, with keys sorted by name
+   */
+  public LocaleCheckResult getResult(int localeIndex, boolean findUnused) {
+    BitSet missingKeys = getMissingKeys(localeIndex);
+    int matchedCount = usedKeys.cardinality() - missingKeys.cardinality();
+    List<String> unusedKeys = findUnused ? symbols.getKeys(getUnusedKeys(localeIndex)) : null;
+    return new LocaleCheckResult(locales.get(localeIndex), symbols.getKeys(missingKeys), unusedKeys, matchedCount);
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.scanner;
+
+/**
+ * Describes one form of function call or directive which references a locale key,
+ * for use with KeyCallMatcher.  A pattern starts with a literal anchor, which is
+ * followed by an optional method call and then a parenthesized argument list:
+ * <pre>
+ * anchor [. member() ...] [. method] ( argument, argument, ... )
+ * </pre>
+ * The key is either the positional argument numbered keyArgument (starting at 1),
+ * or the named argument keyAttribute (as in <code>@Resource(key='KEY', bundle='b')</code>),
+ * and must be a quoted string of [A-Z0-9_] characters.  Some examples:
+ * <ul>
+ * <li>anchor="resourceManager" method="getStringArray": resourceManager.getStringArray('b', 'KEY')</li>
+ * <li>anchor="@Resource" keyAttribute="key": @Resource(key='KEY', bundle='b')</li>
+ * <li>anchor="L10N.get" keyArgument="1": L10N.get('KEY')</li>
+ * </ul>
+ */
+public class KeyPattern {
+  private String anchor = null;
+  private String method = null;
+  private int keyArgument = 2;
+  private String keyAttribute = null;
+
+  public KeyPattern() {
+  }
+
+  /**
+   * @param anchor Literal text which starts the call
+   * @param method Method called on the anchor, or null if the anchor is followed
+   * directly by the argument list
+   * @param keyArgument Position of the key in the argument list, starting at 1
+   */
+  public KeyPattern(String anchor, String method, int keyArgument) {
+    this.anchor = anchor;
+    this.method = method;
+    this.keyArgument = keyArgument;
+  }
+
+  /**
+   * Checks that the pattern is complete
+   * @throws IllegalArgumentException If the pattern cannot be matched
+   */
+  public void validate() {
+    if(anchor == null || anchor.length() == 0) {
+      throw new IllegalArgumentException("Key pattern needs a non-empty anchor");
+    }
+    for(int i = 0; i < anchor.length(); i++) {
+      if(anchor.charAt(i) >= 128) {
+        throw new IllegalArgumentException("Key pattern anchor '" + anchor + "' may only contain ASCII characters");
+      }
+    }
+    if(keyAttribute == null && keyArgument < 1) {
+      throw new IllegalArgumentException("Key pattern '" + anchor + "' needs a keyArgument of at least 1");
+    }
+  }
+
+  public String getAnchor() {
+    return anchor;
+  }
+
+  public void setAnchor(String anchor) {
+    this.anchor = anchor;
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  public void setMethod(String method) {
+    this.method = method;
+  }
+
+  public int getKeyArgument() {
+    return keyArgument;
+  }
+
+  public void setKeyArgument(int keyArgument) {
+    this.keyArgument = keyArgument;
+  }
+
+  public String getKeyAttribute() {
+    return keyAttribute;
+  }
+
+  public void setKeyAttribute(String keyAttribute) {
+    this.keyAttribute = keyAttribute;
+  }
+
+  public String toString() {
+    return anchor + (method != null ? "." + method : "") +
+      (keyAttribute != null ? "(" + keyAttribute + "=)" : "(#" + keyArgument + ")");
+  }
+}
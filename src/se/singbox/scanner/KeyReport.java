@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.scanner;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the results of checking all locales, grouped by key, so that a key
+ * missing from every locale is reported once instead of once per locale.  The
+ * full report can be written as CSV, JSON or JUnit XML, which is streamed
+ * through a single buffered writer.
+ */
+public class KeyReport {
+  /** One "locale,key,status" line per missing or unused key and locale */
+  public static final String FORMAT_CSV = "csv";
+  /** One object per locale, with its counts and the missing and unused keys */
+  public static final String FORMAT_JSON = "json";
+  /** One test suite per locale, with a failed test case per missing key */
+  public static final String FORMAT_JUNIT = "junit";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final String STATUS_MISSING = "missing";
+  private static final String STATUS_UNUSED = "unused";
+
+  private final List<LocaleCheckResult> results;
+  /** For each key, the indices of the locales it is missing from */
+  private final Map<String, BitSet> missingKeys = new TreeMap<String, BitSet>();
+  /** For each key, the indices of the locales where it is unused */
+  private final Map<String, BitSet> unusedKeys = new TreeMap<String, BitSet>();
+
+  /**
+   * @param results Results of checking each locale
+   */
+  public KeyReport(List<LocaleCheckResult> results) {
+    this.results = results;
+    for(int i = 0; i < results.size(); i++) {
+      addKeys(missingKeys, results.get(i).getMissingKeys(), i);
+      addKeys(unusedKeys, results.get(i).getUnusedKeys(), i);
+    }
+  }
+
+  private static void addKeys(Map<String, BitSet> keyLocales, List<String> keys, int localeIndex) {
+    if(keys == null) {
+      return;
+    }
+    for(String key : keys) {
+      BitSet locales = keyLocales.get(key);
+      if(locales == null) {
+        locales = new BitSet();
+        keyLocales.put(key, locales);
+      }
+      locales.set(localeIndex);
+    }
+  }
+
+  public List<LocaleCheckResult> getResults() {
+    return results;
+  }
+
+  /** @return True if no locale is missing any keys */
+  public boolean isComplete() {
+    return missingKeys.isEmpty();
+  }
+
+  /** @return Each key missing from any locale, sorted, with the indices of those locales */
+  public Map<String, BitSet> getMissingKeys() {
+    return Collections.unmodifiableMap(missingKeys);
+  }
+
+  /** @return Each key unused in any locale, sorted, with the indices of those locales */
+  public Map<String, BitSet> getUnusedKeys() {
+    return Collections.unmodifiableMap(unusedKeys);
+  }
+
+  /**
+   * @param locales Indices of locales in the results
+   * @return A comma separated list of the locale names, or "all locales"
+   */
+  public String describeLocales(BitSet locales) {
+    if(locales.cardinality() == results.size() && results.size() > 1) {
+      return "all locales";
+    }
+    StringBuilder names = new StringBuilder();
+    for(int i = locales.nextSetBit(0); i >= 0; i = locales.nextSetBit(i + 1)) {
+      if(names.length() > 0) {
+        names.append(", ");
+      }
+      names.append(results.get(i).getLocale());
+    }
+    return names.toString();
+  }
+
+  /**
+   * @param fileName Name of a report file
+   * @return The format implied by the file's extension, FORMAT_JSON for ".json",
+   * FORMAT_JUNIT for ".xml" and FORMAT_CSV otherwise
+   */
+  public static String getFormat(String fileName) {
+    String lowerName = fileName.toLowerCase();
+    if(lowerName.endsWith(".json")) {
+      return FORMAT_JSON;
+    }
+    else if(lowerName.endsWith(".xml")) {
+      return FORMAT_JUNIT;
+    }
+    return FORMAT_CSV;
+  }
+
+  /**
+   * Writes the full report
+   * @param file File to write
+   * @param format FORMAT_CSV, FORMAT_JSON or FORMAT_JUNIT
+   * @throws IOException If the file could not be written
+   */
+  public void write(File file, String format) throws IOException {
+    if(!FORMAT_CSV.equals(format) && !FORMAT_JSON.equals(format) && !FORMAT_JUNIT.equals(format)) {
+      throw new IllegalArgumentException("Unknown report format '" + format + "', expected '" +
+        FORMAT_CSV + "', '" + FORMAT_JSON + "' or '" + FORMAT_JUNIT + "'");
+    }
+
+    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF8"), BUFFER_SIZE);
+    try {
+      if(FORMAT_JSON.equals(format)) {
+        writeJson(writer);
+      }
+      else if(FORMAT_JUNIT.equals(format)) {
+        writeJUnit(writer);
+      }
+      else {
+        writeCSV(writer);
+      }
+    }
+    finally {
+      writer.close();
+    }
+  }
+
+  private void writeCSV(Writer writer) throws IOException {
+    writer.write("locale,key,status\n");
+    for(LocaleCheckResult result : results) {
+      writeCSVLines(writer, result.getLocale(), result.getMissingKeys(), STATUS_MISSING);
+      writeCSVLines(writer, result.getLocale(), result.getUnusedKeys(), STATUS_UNUSED);
+    }
+  }
+
+  private static void writeCSVLines(Writer writer, String locale, List<String> keys, String status) throws IOException {
+    if(keys == null) {
+      return;
+    }
+    String prefix = quoteCSV(locale) + ",";
+    String suffix = "," + status + "\n";
+    for(String key : keys) {
+      writer.write(prefix);
+      writer.write(quoteCSV(key));
+      writer.write(suffix);
+    }
+  }
+
+  private void writeJson(Writer writer) throws IOException {
+    writer.write("{\"locales\": [");
+    for(int i = 0; i < results.size(); i++) {
+      LocaleCheckResult result = results.get(i);
+      writer.write(i > 0 ? ",\n" : "\n");
+      writer.write("  {\"locale\": " + quoteJson(result.getLocale()) + ", \"matched\": " + result.getMatchedCount() +
+        ", \"complete\": " + result.isComplete() + ",\n   \"missing\": ");
+      writeJsonArray(writer, result.getMissingKeys());
+      if(result.getUnusedKeys() != null) {
+        writer.write(",\n   \"unused\": ");
+        writeJsonArray(writer, result.getUnusedKeys());
+      }
+      writer.write("}");
+    }
+    writer.write("\n]}\n");
+  }
+
+  private static void writeJsonArray(Writer writer, List<String> keys) throws IOException {
+    writer.write('[');
+    for(int i = 0; i < keys.size(); i++) {
+      if(i > 0) {
+        writer.write(", ");
+      }
+      writer.write(quoteJson(keys.get(i)));
+    }
+    writer.write(']');
+  }
+
+  private void writeJUnit(Writer writer) throws IOException {
+    writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testsuites>\n");
+    for(LocaleCheckResult result : results) {
+      List<String> unused = result.getUnusedKeys() != null ? result.getUnusedKeys() : Collections.<String>emptyList();
+      String className = quoteXml("l10n." + result.getLocale());
+      // The defined keys are summarized in one passed test case
+      int numTests = 1 + result.getMissingKeys().size() + unused.size();
+      writer.write("  <testsuite name=" + className + " tests=\"" + numTests + "\" failures=\"" +
+        result.getMissingKeys().size() + "\" errors=\"0\" skipped=\"" + unused.size() + "\">\n");
+      writer.write("    <testcase classname=" + className + " name=\"Matched " + result.getMatchedCount() +
+        " locale strings\"/>\n");
+      for(String key : result.getMissingKeys()) {
+        writer.write("    <testcase classname=" + className + " name=" + quoteXml(key) +
+          "><failure message=\"Missing locale key\"/></testcase>\n");
+      }
+      for(String key : unused) {
+        writer.write("    <testcase classname=" + className + " name=" + quoteXml(key) +
+          "><skipped message=\"Unused locale key\"/></testcase>\n");
+      }
+      writer.write("  </testsuite>\n");
+    }
+    writer.write("</testsuites>\n");
+  }
+
+  private static String quoteCSV(String value) {
+    if(value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+      return value;
+    }
+    return "\"" + value.replace("\"", "\"\"") + "\"";
+  }
+
+  private static String quoteJson(String value) {
+    StringBuilder quoted = new StringBuilder(value.length() + 2);
+    quoted.append('"');
+    for(int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if(c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      }
+      else if(c < ' ') {
+        quoted.append(String.format("\\u%04x", (int)c));
+      }
+      else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  /** @return The value as a quoted XML attribute value */
+  private static String quoteXml(String value) {
+    StringBuilder quoted = new StringBuilder(value.length() + 2);
+    quoted.append('"');
+    for(int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch(c) {
+        case '"':
+          quoted.append("&quot;");
+          break;
+        case '&':
+          quoted.append("&amp;");
+          break;
+        case '<':
+          quoted.append("&lt;");
+          break;
+        case '>':
+          quoted.append("&gt;");
+          break;
+        case '\t':
+        case '\n':
+        case '\r':
+          quoted.append("&#").append((int)c).append(';');
+          break;
+        default:
+          // Other control characters are not allowed in XML 1.0, even as references
+          if(c < ' ' || c == '\uFFFE' || c == '\uFFFF') {
+            quoted.append('?');
+          }
+          else {
+            quoted.append(c);
+          }
+          break;
+      }
+    }
+    return quoted.append('"').toString();
+  }
+}
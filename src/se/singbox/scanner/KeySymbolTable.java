@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.scanner;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns each distinct locale key a small integer ID, so that sets of keys can
+ * be stored as BitSets and compared a machine word at a time.  IDs are handed
+ * out in the order keys are first seen, starting at 0.  All methods may be
+ * called from several threads at once.
+ */
+public class KeySymbolTable {
+  private final Map<String, Integer> ids = new HashMap<String, Integer>();
+  private final List<String> keys = new ArrayList<String>();
+
+  /**
+   * @param key Key to look up
+   * @return The ID of the key, which is assigned if the key has not been seen before
+   */
+  public synchronized int intern(String key) {
+    Integer id = ids.get(key);
+    if(id == null) {
+      id = keys.size();
+      ids.put(key, id);
+      keys.add(key);
+    }
+    return id;
+  }
+
+  /**
+   * Interns a whole collection of keys while holding the lock only once
+   * @param keys Keys to look up
+   * @return A set containing the ID of every key
+   */
+  public synchronized BitSet internAll(Collection<String> keys) {
+    BitSet keyIds = new BitSet(this.keys.size() + keys.size());
+    for(String key : keys) {
+      keyIds.set(intern(key));
+    }
+    return keyIds;
+  }
+
+  /**
+   * @param key Key to look up
+   * @return The ID of the key, or -1 if it has never been interned
+   */
+  public synchronized int getId(String key) {
+    Integer id = ids.get(key);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * @param id ID returned by intern()
+   * @return The key with this ID
+   */
+  public synchronized String getKey(int id) {
+    return keys.get(id);
+  }
+
+  /**
+   * @param keyIds Set of key IDs
+   * @return The keys with these IDs, sorted by name
+   */
+  public synchronized List<String> getKeys(BitSet keyIds) {
+    List<String> keyNames = new ArrayList<String>(keyIds.cardinality());
+    for(int id = keyIds.nextSetBit(0); id >= 0; id = keyIds.nextSetBit(id + 1)) {
+      keyNames.add(keys.get(id));
+    }
+    Collections.sort(keyNames);
+    return keyNames;
+  }
+
+  /** @return Number of distinct keys interned so far */
+  public synchronized int size() {
+    return keys.size();
+  }
+}
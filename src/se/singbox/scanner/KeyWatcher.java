@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the source and locale directories for changes, and re-checks only the
+ * files which changed using an IncrementalKeyChecker.  Events arriving within a
+ * short time of each other are handled as one batch, so that saving many files
+ * at once (eg. a checkout) is checked in one go.
+ */
+public class KeyWatcher {
+  /** How long to wait for further events after the first event of a batch */
+  private static final long BATCH_MILLIS = 50;
+  private static final String LOCALE_EXTENSION = "properties";
+
+  private final IncrementalKeyChecker checker;
+  private final FolderScanner sourceScanner;
+  private final String sourceDir;
+  private final String extension;
+  private final String localeDir;
+  private final Path sourceRoot;
+  private final Path localeRoot;
+  private final Map<WatchKey, Path> watchedDirs = new HashMap<WatchKey, Path>();
+  private WatchService watchService = null;
+
+  /**
+   * @param checker Checker holding the state of the initial scan
+   * @param sourceScanner Decides which source files are scanned, see FolderScanner.accepts()
+   * @param sourceDir The source directory to watch
+   * @param extension Only check source files with this extension, or null for all files
+   * @param localeDir The locale directory to watch
+   */
+  public KeyWatcher(IncrementalKeyChecker checker, FolderScanner sourceScanner, String sourceDir,
+                    String extension, String localeDir) {
+    this.checker = checker;
+    this.sourceScanner = sourceScanner;
+    this.sourceDir = sourceDir;
+    this.extension = extension;
+    this.localeDir = localeDir;
+    this.sourceRoot = Paths.get(sourceDir);
+    this.localeRoot = Paths.get(localeDir);
+  }
+
+  /**
+   * Watches for changes until the current thread is interrupted
+   * @param listener Receives the changed results
+   * @throws IOException If the directories could not be watched, or a file could not be read
+   */
+  public void run(WatchListener listener) throws IOException {
+    watchService = FileSystems.getDefault().newWatchService();
+    try {
+      registerAll(sourceRoot);
+      registerAll(localeRoot);
+
+      while(!Thread.currentThread().isInterrupted()) {
+        Set<Path> changedPaths = new LinkedHashSet<Path>();
+        WatchKey key = watchService.take();
+        boolean overflow = collectEvents(key, changedPaths);
+        while((key = watchService.poll(BATCH_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+          overflow |= collectEvents(key, changedPaths);
+        }
+
+        long startTime = System.nanoTime();
+        if(overflow) {
+          // Some events were lost, so every file has to be checked again, and files
+          // deleted in the meantime forgotten
+          changedPaths.clear();
+          changedPaths.add(sourceRoot);
+          changedPaths.add(localeRoot);
+        }
+        for(Path path : changedPaths) {
+          handleChange(path, listener);
+        }
+        listener.filesChecked(changedPaths.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+      }
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    catch(ClosedWatchServiceException e) {
+      // Stopped from another thread
+    }
+    finally {
+      watchService.close();
+    }
+  }
+
+  /** Stops watching, which makes run() return */
+  public void stop() throws IOException {
+    if(watchService != null) {
+      watchService.close();
+    }
+  }
+
+  /**
+   * @return True if events were lost and everything needs to be checked again
+   */
+  private boolean collectEvents(WatchKey key, Set<Path> changedPaths) {
+    boolean overflow = false;
+    Path dir = watchedDirs.get(key);
+    for(WatchEvent<?> event : key.pollEvents()) {
+      if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        overflow = true;
+      }
+      else if(dir != null) {
+        changedPaths.add(dir.resolve((Path)event.context()));
+      }
+    }
+    if(!key.reset()) {
+      watchedDirs.remove(key);
+    }
+    return overflow;
+  }
+
+  private void handleChange(Path path, WatchListener listener) throws IOException {
+    File file = path.toFile();
+    boolean isLocale = path.startsWith(localeRoot);
+    if(Files.isDirectory(path)) {
+      // New directories must be watched, and files may have been moved into or out of them
+      registerAll(path);
+      checkFolder(path, isLocale, listener);
+    }
+    else if(isLocale) {
+      if(file.isFile() && file.getName().endsWith("." + LOCALE_EXTENSION)) {
+        report(checker.updateLocaleFile(file), listener);
+      }
+      else if(!file.exists()) {
+        // Either a locale file or a whole directory of them was deleted
+        report(checker.removeLocaleFiles(file), listener);
+      }
+    }
+    else if(sourceScanner.accepts(sourceDir, extension, file)) {
+      report(checker.updateSourceFile(file), listener);
+    }
+    else {
+      // Deleted, or still there but now hidden or excluded
+      report(checker.removeSourceFiles(file), listener);
+    }
+  }
+
+  /**
+   * Re-checks every file in a directory, and forgets the files which were found
+   * there before but are now gone, hidden or excluded
+   */
+  private void checkFolder(Path dir, boolean isLocale, WatchListener listener) throws IOException {
+    Set<File> foundFiles = new HashSet<File>();
+    if(isLocale) {
+      for(File localeFile : new FolderScanner().scanFolder(dir.toString(), LOCALE_EXTENSION)) {
+        foundFiles.add(localeFile);
+        report(checker.updateLocaleFile(localeFile), listener);
+      }
+      for(File localeFile : checker.getLocaleFiles()) {
+        if(localeFile.toPath().startsWith(dir) && !foundFiles.contains(localeFile)) {
+          report(checker.removeLocaleFiles(localeFile), listener);
+        }
+      }
+    }
+    else {
+      for(File sourceFile : sourceScanner.scanFolder(dir.toString(), extension)) {
+        if(sourceScanner.accepts(sourceDir, extension, sourceFile)) {
+          foundFiles.add(sourceFile);
+          report(checker.updateSourceFile(sourceFile), listener);
+        }
+      }
+      for(File sourceFile : checker.getSourceFiles()) {
+        if(sourceFile.toPath().startsWith(dir) && !foundFiles.contains(sourceFile)) {
+          report(checker.removeSourceFiles(sourceFile), listener);
+        }
+      }
+    }
+  }
+
+  private static void report(Collection<String> changes, WatchListener listener) {
+    for(String change : changes) {
+      listener.keysChanged(change);
+    }
+  }
+
+  /** Watches a directory and all of its subdirectories */
+  private void registerAll(Path dir) throws IOException {
+    if(!Files.isDirectory(dir)) {
+      return;
+    }
+    watchedDirs.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+      StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+    DirectoryStream<Path> children = Files.newDirectoryStream(dir);
+    try {
+      for(Path child : children) {
+        // Hidden directories such as .svn or .git are never scanned, so don't watch them
+        if(Files.isDirectory(child) && !child.getFileName().toString().startsWith(".")) {
+          registerAll(child);
+        }
+      }
+    }
+    finally {
+      children.close();
+    }
+  }
+}
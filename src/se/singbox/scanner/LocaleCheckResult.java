@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.scanner;
+
+import java.util.List;
+
+/** Outcome of checking one locale against the keys found in the source code */
+public class LocaleCheckResult {
+  private final String locale;
+  private final List<String> missingKeys;
+  private final List<String> unusedKeys;
+  private final int matchedCount;
+
+  /**
+   * @param locale Name of the checked locale
+   * @param missingKeys Keys used in the source code but not defined in the locale, sorted
+   * @param unusedKeys Keys defined in the locale but not used in the source code, sorted,
+   * or null if unused keys were not checked
+   * @param matchedCount Number of keys used in the source code which are defined
+   */
+  public LocaleCheckResult(String locale, List<String> missingKeys, List<String> unusedKeys, int matchedCount) {
+    this.locale = locale;
+    this.missingKeys = missingKeys;
+    this.unusedKeys = unusedKeys;
+    this.matchedCount = matchedCount;
+  }
+
+  public String getLocale() {
+    return locale;
+  }
+
+  /** @return True if the locale defines every key used in the source code */
+  public boolean isComplete() {
+    return missingKeys.isEmpty();
+  }
+
+  public List<String> getMissingKeys() {
+    return missingKeys;
+  }
+
+  /** @return The unused keys, or null if unused keys were not checked */
+  public List<String> getUnusedKeys() {
+    return unusedKeys;
+  }
+
+  public int getMatchedCount() {
+    return matchedCount;
+  }
+}
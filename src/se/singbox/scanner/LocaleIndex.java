@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.scanner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Read-only index of the keys defined in one locale properties file.  The file
+ * is parsed once when the index is loaded, after which the index can be shared
+ * freely between threads and checks.
+ */
+public class LocaleIndex {
+  private final File localeFile;
+  private final Set<String> keys;
+
+  private LocaleIndex(File localeFile, Set<String> keys) {
+    this.localeFile = localeFile;
+    this.keys = Collections.unmodifiableSet(keys);
+  }
+
+  /**
+   * Parses a locale properties file
+   * @param localeFile Locale properties file (any language)
+   * @return An index of all keys defined in the file
+   * @throws IOException If localeFile could not be read
+   */
+  public static LocaleIndex load(File localeFile) throws IOException {
+    Properties localeKeys = new Properties();
+    InputStream inStream = new FileInputStream(localeFile);
+    try {
+      localeKeys.load(inStream);
+    }
+    finally {
+      inStream.close();
+    }
+
+    Set<String> keys = new HashSet<String>(localeKeys.size() * 4 / 3 + 1);
+    for(Object localeKey : localeKeys.keySet()) {
+      keys.add(localeKey.toString());
+    }
+    return new LocaleIndex(localeFile, keys);
+  }
+
+  public File getFile() {
+    return localeFile;
+  }
+
+  /**
+   * @return The locale name, taken from the directory containing the file, eg. "en_US"
+   */
+  public String getLocale() {
+    return localeFile.getParentFile().getName();
+  }
+
+  public boolean contains(String key) {
+    return keys.contains(key);
+  }
+
+  /** @return All keys defined in this locale, which may not be modified */
+  public Set<String> keySet() {
+    return keys;
+  }
+}
@@ -29,67 +29,139 @@
 package se.singbox.scanner;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Properties;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class LocaleKeyChecker {
   /**
-   * Check a given locale file against a set of keys to find unset
-   * localization keys.  Will return false if a key is in the given
-   * set, but NOT in the corresponding locale file
-   * @param localeFile Locale properties file (any language) containing the
-   * localized strings for the application
+   * Checks an already loaded locale against a set of keys
+   * @param locale Index of the keys defined by the locale
    * @param keys Set of known locale keys in the application's source code
-   * @return True if the application's source code has no undefined keys
-   * @throws IOException If inputFile could not be read
+   * @param findUnused Whether to also look for keys which the source code does not use
+   * @return The missing (and possibly unused) keys, sorted by name
    */
-  public Boolean check(File localeFile, Set<String> keys) throws IOException {
-    Boolean result = true;
+  public LocaleCheckResult check(LocaleIndex locale, Set<String> keys, boolean findUnused) {
+    List<String> missingKeys = new ArrayList<String>();
     int matchedCount = 0;
-    int missingCount = 0;
-
-    Properties localeKeys = new Properties();
-    localeKeys.load(new FileInputStream(localeFile));
 
     for(String key : keys) {
-      if(localeKeys.getProperty(key) == null) {
-        System.err.println("Missing locale key '" + key + "'");
-        result = false;
-        missingCount++;
+      if(!locale.contains(key)) {
+        missingKeys.add(key);
       }
       else {
         matchedCount++;
       }
     }
+    Collections.sort(missingKeys);
 
-    if(missingCount > 0) {
-      System.out.println("Found " + missingCount + " missing locale strings");
-    }
-    else {
-      System.out.println("Matched all " + matchedCount + " locale strings");
+    List<String> unusedKeys = findUnused ? findUnused(locale, keys) : null;
+    return new LocaleCheckResult(locale.getLocale(), missingKeys, unusedKeys, matchedCount);
+  }
+
+  /**
+   * @param locale Index of the keys defined by the locale
+   * @param keys Set of known locale keys in the application's source code
+   * @return Keys defined by the locale but not used in the source code, sorted by name
+   */
+  private List<String> findUnused(LocaleIndex locale, Set<String> keys) {
+    List<String> unusedKeys = new ArrayList<String>();
+    for(String localeKey : locale.keySet()) {
+      if(!keys.contains(localeKey)) {
+        unusedKeys.add(localeKey);
+      }
     }
+    Collections.sort(unusedKeys);
+    return unusedKeys;
+  }
 
-    return result;
+  /**
+   * Loads and checks several locale files concurrently.  Each file is read only
+   * once, even when also looking for unused keys.
+   * @param localeFiles Locale properties files to check
+   * @param keys Set of known locale keys in the application's source code, which
+   * must not be modified while checking
+   * @param findUnused Whether to also look for keys which the source code does not use
+   * @param numThreads Maximum number of locales to load at once
+   * @return One result per locale file, in the same order as localeFiles
+   * @throws IOException If any of the locale files could not be read
+   */
+  public List<LocaleCheckResult> checkAll(Collection<File> localeFiles, Set<String> keys,
+                                          boolean findUnused, int numThreads) throws IOException {
+    KeyCoverage coverage = buildCoverage(localeFiles, keys, numThreads);
+    List<LocaleCheckResult> results = new ArrayList<LocaleCheckResult>(localeFiles.size());
+    for(int i = 0; i < coverage.getLocales().size(); i++) {
+      results.add(coverage.getResult(i, findUnused));
+    }
+    return results;
   }
 
   /**
-   * Prints warnings to the console for any keys which have been defined in
-   * the locale property files but not used in the application's source code.
-   * @param localeFile Locale properties file (any language) containing the
-   * localized strings for the application
-   * @param keys Set of known locale keys in the application's source code
-   * @throws IOException If inputFile could not be read
+   * Loads several locale files concurrently into a coverage matrix.  Every key is
+   * interned in a shared symbol table, starting with the keys used in the source
+   * code, and each locale is kept only as a BitSet of the key IDs it defines.
+   * @param localeFiles Locale properties files to load
+   * @param keys Set of known locale keys in the application's source code, which
+   * must not be modified while loading
+   * @param numThreads Maximum number of locales to load at once
+   * @return The coverage of the keys by every locale, in the same order as localeFiles
+   * @throws IOException If any of the locale files could not be read
    */
-  public void warnUnused(File localeFile, Set<String> keys) throws IOException {
-    Properties localeKeys = new Properties();
-    localeKeys.load(new FileInputStream(localeFile));
+  public KeyCoverage buildCoverage(Collection<File> localeFiles, Set<String> keys, int numThreads) throws IOException {
+    final KeySymbolTable symbols = new KeySymbolTable();
+    BitSet usedKeys = symbols.internAll(keys);
+    List<String> locales = new ArrayList<String>(localeFiles.size());
+    List<BitSet> definedKeys = new ArrayList<BitSet>(localeFiles.size());
+    if(localeFiles.isEmpty()) {
+      return new KeyCoverage(symbols, usedKeys, locales, definedKeys);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, localeFiles.size())));
+    try {
+      List<Future<BitSet>> loads = new ArrayList<Future<BitSet>>(localeFiles.size());
+      for(final File localeFile : localeFiles) {
+        locales.add(localeFile.getParentFile().getName());
+        loads.add(executor.submit(new Callable<BitSet>() {
+          public BitSet call() throws IOException {
+            return symbols.internAll(LocaleIndex.load(localeFile).keySet());
+          }
+        }));
+      }
 
-    for(Object localeKey : localeKeys.keySet()) {
-      if(!keys.contains(localeKey.toString())) {
-        System.out.println("Unused locale key '" + localeKey.toString() + "'");
+      for(Future<BitSet> load : loads) {
+        definedKeys.add(load.get());
       }
     }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while loading locales");
+    }
+    catch(ExecutionException e) {
+      Throwable cause = e.getCause();
+      if(cause instanceof IOException) {
+        throw (IOException)cause;
+      }
+      else if(cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      }
+      else if(cause instanceof Error) {
+        throw (Error)cause;
+      }
+      throw new IOException(cause.toString());
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    return new KeyCoverage(symbols, usedKeys, locales, definedKeys);
   }
 }
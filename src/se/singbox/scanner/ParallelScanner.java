@@ -0,0 +1,402 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Scans files for locale keys using a pool of worker threads.  Files are fed to
+ * the workers through a bounded queue, so that a folder can be scanned while it
+ * is still being walked: scanning starts with the first file found, and memory
+ * use does not depend on the size of the tree.  When the queue is full, whoever
+ * is adding files waits for the workers to catch up.  Each worker owns its own
+ * FileScanner, and the keys found by all workers are merged into a single
+ * concurrent set.
+ */
+public class ParallelScanner implements FileHandler {
+  /** Default capacity of the queue between the folder walk and the workers */
+  public static final int DEFAULT_QUEUE_SIZE = 1024;
+  /** Queued once per worker to tell it that no more files will arrive */
+  private static final File END_OF_FILES = new File("");
+  /** How often a blocked producer checks whether the workers have failed */
+  private static final long PRODUCER_POLL_MILLIS = 100;
+
+  private final int numThreads;
+  private final FileScanner settings;
+  private final int queueSize;
+  private ScanCache cache = null;
+
+  private BlockingQueue<File> queue = null;
+  private ExecutorService executor = null;
+  private List<Future<Void>> workers = null;
+  private Set<String> outputKeys = null;
+  /** The first exception or error thrown by any of the workers */
+  private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+  private volatile boolean interrupted = false;
+
+  private final AtomicInteger numFilesQueued = new AtomicInteger(0);
+  private final AtomicInteger maxQueueDepth = new AtomicInteger(0);
+  private final AtomicInteger numProducerWaits = new AtomicInteger(0);
+  private final AtomicLong producerWaitNanos = new AtomicLong(0);
+  private final AtomicInteger numWorkerWaits = new AtomicInteger(0);
+  private final AtomicLong workerWaitNanos = new AtomicLong(0);
+  private long walkNanos = 0;
+
+  /**
+   * @param numThreads Number of worker threads to scan with, must be at least 1
+   */
+  public ParallelScanner(int numThreads) {
+    this(numThreads, new FileScanner());
+  }
+
+  /**
+   * @param numThreads Number of worker threads to scan with, must be at least 1
+   * @param settings Each worker creates a FileScanner with the same settings as this one
+   */
+  public ParallelScanner(int numThreads, FileScanner settings) {
+    this(numThreads, settings, DEFAULT_QUEUE_SIZE);
+  }
+
+  /**
+   * @param numThreads Number of worker threads to scan with, must be at least 1
+   * @param settings Each worker creates a FileScanner with the same settings as this one
+   * @param queueSize Maximum number of files waiting to be scanned
+   */
+  public ParallelScanner(int numThreads, FileScanner settings, int queueSize) {
+    if(numThreads < 1) {
+      throw new IllegalArgumentException("Number of threads must be at least 1");
+    }
+    else if(queueSize < 1) {
+      throw new IllegalArgumentException("Queue size must be at least 1");
+    }
+    this.numThreads = numThreads;
+    this.settings = settings;
+    this.queueSize = queueSize;
+  }
+
+  /**
+   * @param cache Cache to look up previously scanned files in, or null to always
+   * scan every file
+   */
+  public void setCache(ScanCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Scans all of the given files for locale keys
+   * @param inputFiles Files to scan
+   * @return The set of all keys found in any of the files
+   * @throws IOException If any of the files could not be read
+   */
+  public Set<String> scan(Collection<File> inputFiles) throws IOException {
+    start();
+    try {
+      for(File inputFile : inputFiles) {
+        handleFile(inputFile);
+      }
+    }
+    catch(RuntimeException e) {
+      cancel();
+      throw e;
+    }
+    return finish();
+  }
+
+  /**
+   * Walks a folder and scans the files found while the walk is still in progress
+   * @param walker Walker to find files with
+   * @param folderName The folder to scan
+   * @param extension Scan only files with this extension, see FolderScanner.walkFolder()
+   * @return The set of all keys found in any of the files
+   * @throws IOException If any of the files could not be read
+   */
+  public Set<String> scan(FolderScanner walker, String folderName, String extension) throws IOException {
+    start();
+    long walkStart = System.nanoTime();
+    try {
+      walker.walkFolder(folderName, extension, this);
+      walkNanos = System.nanoTime() - walkStart;
+    }
+    catch(RuntimeException e) {
+      cancel();
+      throw e;
+    }
+    return finish();
+  }
+
+  /**
+   * Walks several source roots and scans the files found while the walk is still in progress
+   * @param walker Walker of the roots, which passes every distinct file once
+   * @return The set of all keys found in any of the files
+   * @throws IOException If any of the files could not be read
+   */
+  public Set<String> scan(SourceWalker walker) throws IOException {
+    start();
+    long walkStart = System.nanoTime();
+    try {
+      walker.walk(this);
+      walkNanos = System.nanoTime() - walkStart;
+    }
+    catch(IOException e) {
+      cancel();
+      throw e;
+    }
+    catch(RuntimeException e) {
+      cancel();
+      throw e;
+    }
+    return finish();
+  }
+
+  /** Starts the worker threads, which then wait for files to arrive */
+  private void start() {
+    queue = new ArrayBlockingQueue<File>(queueSize);
+    outputKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    failure.set(null);
+    interrupted = false;
+
+    executor = Executors.newFixedThreadPool(numThreads);
+    workers = new ArrayList<Future<Void>>(numThreads);
+    for(int i = 0; i < numThreads; i++) {
+      workers.add(executor.submit(new Callable<Void>() {
+        public Void call() {
+          try {
+            runWorker();
+          }
+          catch(Throwable e) {
+            // Errors are recorded too, or the producer would wait forever for room in
+            // the queue.  Workers interrupted because of an earlier failure are not recorded.
+            failure.compareAndSet(null, e);
+          }
+          return null;
+        }
+      }));
+    }
+  }
+
+  /**
+   * Queues a file for scanning, waiting for room in the queue if necessary.  This
+   * may be called from several threads at once, eg. while walking a folder in parallel.
+   * @param file File to scan
+   */
+  public void handleFile(File file) {
+    if(failure.get() != null || interrupted) {
+      // The error is reported by finish()
+      return;
+    }
+
+    try {
+      if(!queue.offer(file)) {
+        long waitStart = System.nanoTime();
+        while(!queue.offer(file, PRODUCER_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+          if(failure.get() != null) {
+            return;
+          }
+        }
+        numProducerWaits.incrementAndGet();
+        producerWaitNanos.addAndGet(System.nanoTime() - waitStart);
+      }
+    }
+    catch(InterruptedException e) {
+      interrupted = true;
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    numFilesQueued.incrementAndGet();
+    int depth = queue.size();
+    int maxDepth;
+    while(depth > (maxDepth = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(maxDepth, depth)) {
+      // Retry until the maximum is updated or another thread has raised it further
+    }
+  }
+
+  private void runWorker() throws IOException, InterruptedException {
+    FileScanner scanner = new FileScanner(settings);
+    while(true) {
+      File file = queue.poll();
+      if(file == null) {
+        long waitStart = System.nanoTime();
+        file = queue.take();
+        numWorkerWaits.incrementAndGet();
+        workerWaitNanos.addAndGet(System.nanoTime() - waitStart);
+      }
+      if(file == END_OF_FILES) {
+        break;
+      }
+
+      outputKeys.addAll(scanFile(scanner, file));
+    }
+  }
+
+  /**
+   * Scans a single file, called by the worker threads.  Subclasses may override
+   * this to look at the keys of each individual file.
+   * @param scanner The worker's own scanner
+   * @param file File to scan
+   * @return The keys found in the file
+   * @throws IOException If the file could not be read
+   */
+  protected Set<String> scanFile(FileScanner scanner, File file) throws IOException {
+    if(cache != null) {
+      return cache.scan(file, scanner);
+    }
+    return scanner.scan(file);
+  }
+
+  /**
+   * Tells the workers that no more files will arrive and waits for them to finish
+   * @return The set of all keys found in any of the files
+   * @throws IOException If any of the files could not be read
+   */
+  private Set<String> finish() throws IOException {
+    try {
+      for(int i = 0; i < numThreads && failure.get() == null && !interrupted; i++) {
+        handleEndOfFiles();
+      }
+      if(failure.get() != null || interrupted) {
+        // Wakes up any workers still waiting for files
+        cancel();
+      }
+
+      for(Future<Void> worker : workers) {
+        waitFor(worker);
+      }
+    }
+    finally {
+      cancel();
+    }
+
+    Throwable cause = failure.get();
+    if(cause instanceof IOException) {
+      throw (IOException)cause;
+    }
+    else if(cause instanceof RuntimeException) {
+      throw (RuntimeException)cause;
+    }
+    else if(cause instanceof Error) {
+      throw (Error)cause;
+    }
+    else if(cause != null || interrupted) {
+      throw new IOException("Interrupted while scanning files");
+    }
+    return outputKeys;
+  }
+
+  private void handleEndOfFiles() {
+    try {
+      while(!queue.offer(END_OF_FILES, PRODUCER_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+        if(failure.get() != null) {
+          return;
+        }
+      }
+    }
+    catch(InterruptedException e) {
+      interrupted = true;
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Stops all workers immediately */
+  private void cancel() {
+    executor.shutdownNow();
+  }
+
+  private void waitFor(Future<Void> worker) throws IOException {
+    try {
+      worker.get();
+    }
+    catch(InterruptedException e) {
+      interrupted = true;
+      cancel();
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while scanning files");
+    }
+    catch(ExecutionException e) {
+      // Workers record everything they throw in failure, so this should not happen
+      failure.compareAndSet(null, e.getCause());
+    }
+  }
+
+  /**
+   * @return Time spent walking the folder in the last scan, in nanoseconds, including
+   * any time spent waiting for room in the queue
+   */
+  public long getWalkNanos() {
+    return walkNanos;
+  }
+
+  /** @return Number of files which have been queued for scanning */
+  public int getNumFilesQueued() {
+    return numFilesQueued.get();
+  }
+
+  /** @return The largest number of files which were waiting in the queue at once */
+  public int getMaxQueueDepth() {
+    return maxQueueDepth.get();
+  }
+
+  /** @return Number of times a file could not be queued because the queue was full */
+  public int getNumProducerWaits() {
+    return numProducerWaits.get();
+  }
+
+  /** @return Total time spent waiting for room in a full queue, in milliseconds */
+  public long getProducerWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(producerWaitNanos.get());
+  }
+
+  /** @return Number of times a worker found the queue empty and had to wait for a file */
+  public int getNumWorkerWaits() {
+    return numWorkerWaits.get();
+  }
+
+  /** @return Total time that all workers spent waiting on an empty queue, in milliseconds */
+  public long getWorkerWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(workerWaitNanos.get());
+  }
+}
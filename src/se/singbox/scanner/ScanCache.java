@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.scanner;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Persistent cache of the keys found in each scanned source file, see
+ * SourceFileCache.  A file whose size and modification time are unchanged is never
+ * re-read; if only the modification time changed, the digest decides whether the
+ * file must be scanned again.
+ */
+public class ScanCache extends SourceFileCache<String[]> {
+  private static final int CACHE_MAGIC = 0x4c31304e;
+  /** Bump this whenever the file format or the scanner's matching rules change */
+  private static final int CACHE_VERSION = 1;
+
+  /**
+   * @param cacheFile File to store the cache in
+   * @param scannerSettings Settings of the scanner used, see FileScanner.getSettings().
+   * A cache written with other settings is discarded.
+   */
+  public ScanCache(File cacheFile, String scannerSettings) {
+    super(cacheFile, CACHE_MAGIC, CACHE_VERSION, scannerSettings);
+  }
+
+  /**
+   * Returns the keys found in the given file, only scanning it if it has changed
+   * since the last run
+   * @param inputFile File to scan
+   * @param scanner Scanner to use if the file must be scanned again
+   * @return The set of keys found in the file
+   * @throws IOException If the file could not be read
+   */
+  public Set<String> scan(File inputFile, FileScanner scanner) throws IOException {
+    return new HashSet<String>(Arrays.asList(lookUp(inputFile, scanner)));
+  }
+
+  protected String[] scanFile(File inputFile, FileScanner scanner) throws IOException {
+    Set<String> keys = scanner.scan(inputFile);
+    return keys.toArray(new String[keys.size()]);
+  }
+
+  protected String[] readValue(DataInputStream inStream) throws IOException {
+    String[] keys = new String[inStream.readInt()];
+    for(int i = 0; i < keys.length; i++) {
+      keys[i] = inStream.readUTF();
+    }
+    return keys;
+  }
+
+  protected void writeValue(DataOutputStream outStream, String[] keys) throws IOException {
+    outStream.writeInt(keys.length);
+    for(String key : keys) {
+      outStream.writeUTF(key);
+    }
+  }
+}
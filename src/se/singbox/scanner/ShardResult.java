@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.scanner;
+
+import se.singbox.filetypes.PersistentFile;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The keys found in one shard of a source folder, see FolderScanner.setShard().
+ * Each shard is written to its own file, and the files of all shards are merged
+ * to check the locales once.  Keys are sorted and front coded in the file, ie.
+ * every key only stores the characters which differ from the previous key, which
+ * keeps the files small as keys tend to share long prefixes.
+ */
+public class ShardResult {
+  private static final int SHARD_MAGIC = 0x4c31304a;
+  /** Bump this whenever the file format changes */
+  private static final int SHARD_VERSION = 1;
+
+  private final int shardIndex;
+  private final int shardCount;
+  private final String scannerSettings;
+  private final int numFiles;
+  private final Set<String> keys;
+
+  /**
+   * @param shardIndex The scanned shard, from 0 to shardCount - 1
+   * @param shardCount Number of shards the source folder was split into
+   * @param scannerSettings Settings of the scanner used, see FileScanner.getSettings()
+   * @param numFiles Number of source files scanned
+   * @param keys Keys found in the shard's source files
+   */
+  public ShardResult(int shardIndex, int shardCount, String scannerSettings, int numFiles, Set<String> keys) {
+    this.shardIndex = shardIndex;
+    this.shardCount = shardCount;
+    this.scannerSettings = scannerSettings;
+    this.numFiles = numFiles;
+    this.keys = keys;
+  }
+
+  public int getShardIndex() {
+    return shardIndex;
+  }
+
+  public int getShardCount() {
+    return shardCount;
+  }
+
+  public String getScannerSettings() {
+    return scannerSettings;
+  }
+
+  public int getNumFiles() {
+    return numFiles;
+  }
+
+  public Set<String> getKeys() {
+    return keys;
+  }
+
+  /**
+   * @param file File to write the result to
+   * @throws IOException If the file could not be written
+   */
+  public void write(File file) throws IOException {
+    new ShardFile(file, this).save();
+  }
+
+  /**
+   * @param file A file written by write()
+   * @return The result stored in the file
+   * @throws IOException If the file could not be read or is not a shard result
+   */
+  public static ShardResult read(File file) throws IOException {
+    if(!file.isFile()) {
+      throw new IOException("Shard result file '" + file + "' does not exist");
+    }
+    ShardFile shardFile = new ShardFile(file, null);
+    if(!shardFile.load()) {
+      throw new IOException("'" + file + "' is not a complete shard result file of this version");
+    }
+    return shardFile.result;
+  }
+
+  private static int commonPrefixLength(String first, String second) {
+    int length = Math.min(Math.min(first.length(), second.length()), 0xffff);
+    int i = 0;
+    while(i < length && first.charAt(i) == second.charAt(i)) {
+      i++;
+    }
+    return i;
+  }
+
+  /** A shard result on disk, whose header holds the scanner settings */
+  private static class ShardFile extends PersistentFile {
+    private ShardResult result;
+
+    /**
+     * @param file File to store the result in
+     * @param result Result to save, or null to load any result
+     */
+    ShardFile(File file, ShardResult result) {
+      super(file, SHARD_MAGIC, SHARD_VERSION, result != null ? result.scannerSettings : null);
+      this.result = result;
+    }
+
+    protected void readContent(DataInputStream inStream) throws IOException {
+      int shardIndex = inStream.readInt();
+      int shardCount = inStream.readInt();
+      int numFiles = inStream.readInt();
+      int numKeys = inStream.readInt();
+      Set<String> keys = new HashSet<String>(numKeys * 2);
+      String previousKey = "";
+      for(int i = 0; i < numKeys; i++) {
+        int prefixLength = inStream.readUnsignedShort();
+        String key = previousKey.substring(0, prefixLength) + inStream.readUTF();
+        keys.add(key);
+        previousKey = key;
+      }
+      result = new ShardResult(shardIndex, shardCount, getSettings(), numFiles, keys);
+    }
+
+    protected void writeContent(DataOutputStream outStream) throws IOException {
+      List<String> sortedKeys = new ArrayList<String>(result.keys);
+      Collections.sort(sortedKeys);
+
+      outStream.writeInt(result.shardIndex);
+      outStream.writeInt(result.shardCount);
+      outStream.writeInt(result.numFiles);
+      outStream.writeInt(sortedKeys.size());
+      String previousKey = "";
+      for(String key : sortedKeys) {
+        int prefixLength = commonPrefixLength(previousKey, key);
+        outStream.writeShort(prefixLength);
+        outStream.writeUTF(key.substring(prefixLength));
+        previousKey = key;
+      }
+    }
+
+    protected void clearContent() {
+      result = null;
+    }
+  }
+
+  /**
+   * Combines the results of all shards, making sure that every shard is present
+   * exactly once and that all shards were scanned with the same settings
+   * @param results The results of all shards, in any order
+   * @return The set of keys found in any shard
+   * @throws IOException If shards are missing, duplicated or inconsistent
+   */
+  public static Set<String> merge(Collection<ShardResult> results) throws IOException {
+    if(results.isEmpty()) {
+      throw new IOException("No shard results to merge");
+    }
+    ShardResult first = results.iterator().next();
+    BitSet seenShards = new BitSet(first.shardCount);
+    Set<String> allKeys = new HashSet<String>();
+    for(ShardResult result : results) {
+      if(result.shardCount != first.shardCount) {
+        throw new IOException("Cannot merge results of " + first.shardCount + " and " + result.shardCount + " shards");
+      }
+      else if(!result.scannerSettings.equals(first.scannerSettings)) {
+        throw new IOException("Cannot merge shards scanned with different settings: " +
+          first.scannerSettings + " and " + result.scannerSettings);
+      }
+      else if(seenShards.get(result.shardIndex)) {
+        throw new IOException("Shard " + result.shardIndex + " of " + result.shardCount + " was given twice");
+      }
+      seenShards.set(result.shardIndex);
+      allKeys.addAll(result.keys);
+    }
+
+    int missingShard = seenShards.nextClearBit(0);
+    if(missingShard < first.shardCount) {
+      throw new IOException("The result of shard " + missingShard + " of " + first.shardCount + " is missing");
+    }
+    return allKeys;
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.scanner;
+
+import se.singbox.filetypes.FileStamp;
+import se.singbox.filetypes.PersistentFile;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Base class for persistent caches of what was found in each scanned source file,
+ * eg. ScanCache.  Every entry records the file's FileStamp along with the value
+ * found in it, so a file is only scanned again if its content changed.  Files which
+ * were not scanned during this run (ie. deleted files) are dropped when the cache is
+ * saved.  A cache written by a scanner with different settings is ignored.  Looking
+ * up files is safe from several scanning threads at once.
+ * @param <T> What is remembered about each file
+ */
+public abstract class SourceFileCache<T> extends PersistentFile {
+  /** Entries read from disk at the start of this run */
+  private final Map<String, Entry<T>> previousEntries = new HashMap<String, Entry<T>>();
+  /** Entries for every file scanned during this run, which are saved afterwards */
+  private final Map<String, Entry<T>> currentEntries = new ConcurrentHashMap<String, Entry<T>>();
+  private final AtomicInteger numHits = new AtomicInteger(0);
+  private final AtomicInteger numMisses = new AtomicInteger(0);
+
+  private static class Entry<T> {
+    final FileStamp stamp;
+    final T value;
+
+    Entry(FileStamp stamp, T value) {
+      this.stamp = stamp;
+      this.value = value;
+    }
+  }
+
+  /**
+   * @param cacheFile File to store the cache in
+   * @param magic Number which every file of this type starts with
+   * @param version Format version, see PersistentFile
+   * @param scannerSettings Settings of the scanner used, see FileScanner.getSettings()
+   */
+  protected SourceFileCache(File cacheFile, int magic, int version, String scannerSettings) {
+    super(cacheFile, magic, version, scannerSettings);
+  }
+
+  protected void readContent(DataInputStream inStream) throws IOException {
+    int numEntries = inStream.readInt();
+    for(int i = 0; i < numEntries; i++) {
+      String path = inStream.readUTF();
+      FileStamp stamp = FileStamp.read(inStream);
+      T value = readValue(inStream);
+      previousEntries.put(path, new Entry<T>(stamp, value));
+      entryAdded(path, value);
+    }
+  }
+
+  /** Writes the entries of all files looked up during this run */
+  protected void writeContent(DataOutputStream outStream) throws IOException {
+    outStream.writeInt(currentEntries.size());
+    for(Map.Entry<String, Entry<T>> mapEntry : currentEntries.entrySet()) {
+      outStream.writeUTF(mapEntry.getKey());
+      mapEntry.getValue().stamp.write(outStream);
+      writeValue(outStream, mapEntry.getValue().value);
+    }
+  }
+
+  protected void clearContent() {
+    previousEntries.clear();
+  }
+
+  /**
+   * Returns what was found in a file, only scanning it if it has changed since the
+   * cache was saved
+   * @param inputFile File to look up
+   * @param scanner Scanner to use if the file must be scanned again
+   * @return The cached or newly scanned value
+   * @throws IOException If the file could not be read
+   */
+  protected T lookUp(File inputFile, FileScanner scanner) throws IOException {
+    String path = inputFile.getAbsolutePath();
+    Entry<T> entry = previousEntries.get(path);
+    FileStamp stamp = FileStamp.of(inputFile, entry != null ? entry.stamp : null);
+    T value;
+    if(entry != null && stamp.hasSameContent(entry.stamp)) {
+      value = entry.value;
+      numHits.incrementAndGet();
+    }
+    else {
+      value = scanFile(inputFile, scanner);
+      numMisses.incrementAndGet();
+    }
+    currentEntries.put(path, new Entry<T>(stamp, value));
+    entryAdded(path, value);
+    return value;
+  }
+
+  /**
+   * @param lookedUp True for the files looked up during this run, false for the files
+   * read from disk
+   * @return The value of a file, or null if there is none
+   */
+  protected T getValue(String path, boolean lookedUp) {
+    Entry<T> entry = (lookedUp ? currentEntries : previousEntries).get(path);
+    return entry != null ? entry.value : null;
+  }
+
+  /**
+   * @param lookedUp True for the files looked up during this run, false for the files
+   * read from disk
+   * @return Number of files
+   */
+  protected int getNumFiles(boolean lookedUp) {
+    return (lookedUp ? currentEntries : previousEntries).size();
+  }
+
+  /** Scans a new or changed file */
+  protected abstract T scanFile(File inputFile, FileScanner scanner) throws IOException;
+
+  protected abstract T readValue(DataInputStream inStream) throws IOException;
+
+  protected abstract void writeValue(DataOutputStream outStream, T value) throws IOException;
+
+  /**
+   * Called for every entry read from disk and every file looked up, which may happen
+   * on several threads at once.  Does nothing by default.
+   */
+  protected void entryAdded(String path, T value) {
+  }
+
+  /** @return Number of files whose value was taken from the cache */
+  public int getNumHits() {
+    return numHits.get();
+  }
+
+  /** @return Number of files which had to be scanned */
+  public int getNumMisses() {
+    return numMisses.get();
+  }
+
+  /** @return Number of cached files which were not seen during this run */
+  public int getNumRemoved() {
+    int numRemoved = 0;
+    for(String path : previousEntries.keySet()) {
+      if(!currentEntries.containsKey(path)) {
+        numRemoved++;
+      }
+    }
+    return numRemoved;
+  }
+}
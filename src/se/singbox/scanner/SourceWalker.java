@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks several source roots, eg. a source folder and shared library folders, and
+ * passes every file found to a single handler.  With more than one thread the roots
+ * are walked concurrently.  Roots may overlap, so with more than one root each file
+ * is identified by its canonical path and only passed on the first time it is found.
+ */
+public class SourceWalker {
+  /** A root of source files to walk */
+  public interface Root {
+    /** @return Name of the root to show in messages, eg. its path */
+    public String getName();
+
+    /**
+     * Finds all files in the root
+     * @param handler Receives the files found, possibly from several threads at once
+     */
+    public void walk(FileHandler handler);
+  }
+
+  private static final int MAX_DESCRIBED_ROOTS = 3;
+
+  private final List<Root> roots = new ArrayList<Root>();
+  private int numThreads = 1;
+  private final AtomicInteger numDuplicates = new AtomicInteger(0);
+
+  /**
+   * @param numThreads Maximum number of roots to walk at the same time
+   */
+  public void setThreads(int numThreads) {
+    if(numThreads < 1) {
+      throw new IllegalArgumentException("Number of threads must be at least 1");
+    }
+    this.numThreads = numThreads;
+  }
+
+  public void addRoot(Root root) {
+    roots.add(root);
+  }
+
+  /**
+   * Adds a folder to walk with a FolderScanner
+   * @param walker Walker to find the files with, which applies its excludes and shard
+   * @param folderName The folder to walk
+   * @param extension Only find files with this extension, see FolderScanner.walkFolder()
+   */
+  public void addFolder(final FolderScanner walker, final String folderName, final String extension) {
+    addRoot(new Root() {
+      public String getName() {
+        return folderName;
+      }
+
+      public void walk(FileHandler handler) {
+        walker.walkFolder(folderName, extension, handler);
+      }
+    });
+  }
+
+  public List<Root> getRoots() {
+    return roots;
+  }
+
+  /** @return Number of files found more than once in the last walk, which were skipped */
+  public int getNumDuplicates() {
+    return numDuplicates.get();
+  }
+
+  /**
+   * Walks all roots, passing each distinct file to the handler once
+   * @param handler Receives the files, possibly from several threads at once
+   * @throws IOException If the walk was interrupted
+   */
+  public void walk(final FileHandler handler) throws IOException {
+    numDuplicates.set(0);
+    if(roots.size() == 1) {
+      // Files can't be found twice, so there's no need to look up canonical paths
+      roots.get(0).walk(handler);
+      return;
+    }
+
+    final Set<String> seenPaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    final FileHandler uniqueHandler = new FileHandler() {
+      public void handleFile(File file) {
+        if(seenPaths.add(getCanonicalPath(file))) {
+          handler.handleFile(file);
+        }
+        else {
+          numDuplicates.incrementAndGet();
+        }
+      }
+    };
+
+    if(numThreads == 1) {
+      for(Root root : roots) {
+        root.walk(uniqueHandler);
+      }
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, roots.size()));
+    try {
+      List<Future<Void>> walks = new ArrayList<Future<Void>>(roots.size());
+      for(final Root root : roots) {
+        walks.add(executor.submit(new Callable<Void>() {
+          public Void call() {
+            root.walk(uniqueHandler);
+            return null;
+          }
+        }));
+      }
+      for(Future<Void> walk : walks) {
+        waitFor(walk);
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Walks all roots and collects the distinct files found
+   * @return The files, sorted by path
+   * @throws IOException If the walk was interrupted
+   */
+  public List<File> collectFiles() throws IOException {
+    final Queue<File> allFiles = new ConcurrentLinkedQueue<File>();
+    walk(new FileHandler() {
+      public void handleFile(File file) {
+        allFiles.add(file);
+      }
+    });
+
+    List<File> sortedFiles = new ArrayList<File>(allFiles);
+    Collections.sort(sortedFiles);
+    return sortedFiles;
+  }
+
+  /** @return Names of the first few roots separated by commas, for messages */
+  public String describeRoots() {
+    StringBuilder description = new StringBuilder();
+    for(int i = 0; i < roots.size() && i < MAX_DESCRIBED_ROOTS; i++) {
+      if(i > 0) {
+        description.append(", ");
+      }
+      description.append(roots.get(i).getName());
+    }
+    if(roots.size() > MAX_DESCRIBED_ROOTS) {
+      description.append(" and ").append(roots.size() - MAX_DESCRIBED_ROOTS).append(" more");
+    }
+    return description.toString();
+  }
+
+  private static String getCanonicalPath(File file) {
+    try {
+      return file.getCanonicalPath();
+    }
+    catch(IOException e) {
+      // The file will fail to be scanned anyway, so report it only once
+      return file.getAbsolutePath();
+    }
+  }
+
+  private static void waitFor(Future<Void> walk) throws IOException {
+    try {
+      walk.get();
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while walking source folders");
+    }
+    catch(ExecutionException e) {
+      Throwable cause = e.getCause();
+      if(cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      }
+      else if(cause instanceof Error) {
+        throw (Error)cause;
+      }
+      throw new IOException(cause.toString());
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.scanner;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Persistent index of where each locale key is used, ie. the file, line and
+ * column of every reference.  Like ScanCache, updating the index only scans new
+ * and changed files again, see SourceFileCache.  Looking up a key only needs the
+ * index file, not the source tree.  The files using each key are kept in a sorted
+ * map, so that a lookup only visits the files which use a matching key.  Updates
+ * are safe from several scanning threads at once.
+ */
+public class UsageIndex extends SourceFileCache<KeyUsage[]> {
+  private static final int INDEX_MAGIC = 0x4c31304b;
+  /** Bump this whenever the file format or the scanner's matching rules change */
+  private static final int INDEX_VERSION = 1;
+
+  private volatile boolean updated = false;
+  /**
+   * Paths of the files using each key, either in the loaded index or, once an update
+   * has started, in the files scanned since
+   */
+  private final ConcurrentSkipListMap<String, Set<String>> filesByKey = new ConcurrentSkipListMap<String, Set<String>>();
+
+  /**
+   * @param indexFile File to store the index in
+   * @param scannerSettings Settings of the scanner used, see FileScanner.getSettings().
+   * An index written with other settings is discarded.
+   */
+  public UsageIndex(File indexFile, String scannerSettings) {
+    super(indexFile, INDEX_MAGIC, INDEX_VERSION, scannerSettings);
+  }
+
+  /**
+   * Updates the entry of a source file, only scanning it if it has changed since
+   * the index was saved
+   * @param inputFile File to scan
+   * @param scanner Scanner to use if the file must be scanned again
+   * @return The set of keys found in the file
+   * @throws IOException If the file could not be read
+   */
+  public Set<String> scan(File inputFile, FileScanner scanner) throws IOException {
+    if(!updated) {
+      synchronized(this) {
+        if(!updated) {
+          // From now on, only the files seen during the update are looked up
+          filesByKey.clear();
+          updated = true;
+        }
+      }
+    }
+
+    Set<String> keys = new HashSet<String>();
+    for(KeyUsage usage : lookUp(inputFile, scanner)) {
+      keys.add(usage.getKey());
+    }
+    return keys;
+  }
+
+  protected KeyUsage[] scanFile(File inputFile, FileScanner scanner) throws IOException {
+    List<KeyUsage> usages = new ArrayList<KeyUsage>();
+    scanner.scan(inputFile, usages);
+    return usages.toArray(new KeyUsage[usages.size()]);
+  }
+
+  protected KeyUsage[] readValue(DataInputStream inStream) throws IOException {
+    KeyUsage[] usages = new KeyUsage[inStream.readInt()];
+    for(int i = 0; i < usages.length; i++) {
+      usages[i] = new KeyUsage(inStream.readUTF(), inStream.readInt(), inStream.readInt());
+    }
+    return usages;
+  }
+
+  protected void writeValue(DataOutputStream outStream, KeyUsage[] usages) throws IOException {
+    outStream.writeInt(usages.length);
+    for(KeyUsage usage : usages) {
+      outStream.writeUTF(usage.getKey());
+      outStream.writeInt(usage.getLine());
+      outStream.writeInt(usage.getColumn());
+    }
+  }
+
+  protected void clearContent() {
+    super.clearContent();
+    filesByKey.clear();
+  }
+
+  protected void entryAdded(String path, KeyUsage[] usages) {
+    for(KeyUsage usage : usages) {
+      Set<String> paths = filesByKey.get(usage.getKey());
+      if(paths == null) {
+        Set<String> newPaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        paths = filesByKey.putIfAbsent(usage.getKey(), newPaths);
+        if(paths == null) {
+          paths = newPaths;
+        }
+      }
+      paths.add(path);
+    }
+  }
+
+  /**
+   * Looks up the usages of a key, or of all keys starting with a prefix
+   * @param keyPattern A key, or a prefix followed by '*', eg. "LOGIN_*"
+   * @return The usages in each file using a matching key, sorted by file path
+   */
+  public SortedMap<String, List<KeyUsage>> findUsages(String keyPattern) {
+    boolean isPrefix = keyPattern.endsWith("*");
+    String prefix = isPrefix ? keyPattern.substring(0, keyPattern.length() - 1) : keyPattern;
+    Set<String> paths = new HashSet<String>();
+    for(Map.Entry<String, Set<String>> keyFiles : filesByKey.tailMap(prefix).entrySet()) {
+      if(isPrefix ? !keyFiles.getKey().startsWith(prefix) : !keyFiles.getKey().equals(prefix)) {
+        // Keys are sorted, so no later key can match either
+        break;
+      }
+      paths.addAll(keyFiles.getValue());
+    }
+
+    SortedMap<String, List<KeyUsage>> result = new TreeMap<String, List<KeyUsage>>();
+    for(String path : paths) {
+      List<KeyUsage> fileUsages = new ArrayList<KeyUsage>();
+      for(KeyUsage usage : getValue(path, updated)) {
+        if(isPrefix ? usage.getKey().startsWith(prefix) : usage.getKey().equals(prefix)) {
+          fileUsages.add(usage);
+        }
+      }
+      result.put(path, fileUsages);
+    }
+    return result;
+  }
+
+  /** @return Number of indexed files */
+  public int getNumFiles() {
+    return getNumFiles(updated);
+  }
+}
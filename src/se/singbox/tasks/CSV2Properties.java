@@ -29,14 +29,8 @@
 package se.singbox.tasks;
 
 import org.apache.tools.ant.BuildException;
-import org.apache.tools.ant.Task;
 import se.singbox.filetypes.CSVFile;
-import se.singbox.filetypes.LocaleSourceFile;
-import se.singbox.filetypes.LocaleStringDictionary;
-import se.singbox.filetypes.LocaleStringSet;
-
-import java.io.*;
-import java.util.HashMap;
+import se.singbox.filetypes.ParallelCSVFile;
 
 /**
  * This task generates the locale properties files given a master comma-separated values
@@ -45,63 +39,38 @@ import java.util.HashMap;
  * <li>inputCSVFile: The CSV file containing all locale keys</li>
  * <li>outputDir: Directory to write output properties files</li>
  * <li>propertyFileName: Filename to use for the generated properties files</li>
+ * <li>threads: Number of threads used to parse large CSV files, defaults to the number
+ * of available processors.  The output is the same as when parsing serially.</li>
+ * <li>manifestFile: File in which to remember a digest of each locale's column between
+ * builds.  Only the locales whose column changed, or whose properties file is missing,
+ * are then regenerated, and nothing is parsed at all if the CSV file is unchanged.
+ * Properties files edited by hand are not noticed, so delete them to regenerate them.
+ * Disabled by default.</li>
  * </ul>
+ * Properties files whose content would not change are left alone, so that their
+ * modification times don't trigger needless recompiles.  Changed files are replaced
+ * atomically.
+ * The CSV file is streamed, so memory use does not depend on its size.  Values which
+ * span several lines in the CSV file are written with escaped line breaks.
+ * The time spent parsing the CSV file and writing the properties files can be
+ * exported with the attributes of InstrumentedTask.
  */
 @SuppressWarnings({"UnusedDeclaration"})
 // Is a top-level class
-public class CSV2Properties extends Task {
+public class CSV2Properties extends PropertiesGeneratorTask {
   private String inputCSVFile = null;
-  private String outputDir = null;
-  private String propertyFileName = "myResources.properties";
+  private int threads = Runtime.getRuntime().availableProcessors();
 
   public void execute() {
     if(inputCSVFile == null) {
       throw new BuildException("Attribute 'csvFile' must be specified");
     }
-    else if(outputDir == null) {
+    else if(getOutputDir() == null) {
       throw new BuildException("Attribute 'outputDir' must be specified");
     }
 
     try {
-      LocaleSourceFile inFile = new CSVFile();
-      LocaleStringDictionary inStrings = inFile.read(inputCSVFile);
-      if(inStrings == null) {
-        throw new BuildException("Error while parsing CSV file");
-      }
-
-      // Build a map of locale names and output file streams
-      LocaleStringSet localeNames = inStrings.get("LOCALE KEY");
-      if(localeNames == null) {
-        throw new IOException("Could not find 'LOCALE KEY' string in input map");
-      }
-      HashMap<String, BufferedWriter> outStreams = new HashMap<String, BufferedWriter>();
-
-      // Now create directories and populate the outStreams map
-      for(Object locale : localeNames.keySet()) {
-        File localeDir = new File(outputDir + System.getProperty("file.separator") + locale.toString());
-        if(!localeDir.mkdir()) {
-          throw new BuildException("Could not create output subdirectory '" + localeDir.toString() + "'");
-        }
-        String localeFileName = localeDir.toString() + System.getProperty("file.separator") + propertyFileName;
-        outStreams.put(locale.toString(), new BufferedWriter(new OutputStreamWriter(
-          new FileOutputStream(localeFileName), "UTF8")));
-      }
-
-      // This key is no longer needed
-      inStrings.remove("LOCALE KEY");
-
-      // Now go through each key and add it to the respective locale
-      for(String key : inStrings.keySet()) {
-        LocaleStringSet keyStrings = inStrings.get(key);
-        for(String locale : keyStrings.keySet()) {
-          BufferedWriter outFile = outStreams.get(locale);
-          if(outFile == null) {
-            throw new BuildException("Internal error -- could not find stream for key");
-          }
-          outFile.write(key + "=" + CSVFile.removeStringPadding(keyStrings.get(locale)));
-          outFile.write(System.getProperty("line.separator"));
-        }
-      }
+      generate(inputCSVFile, threads > 1 ? new ParallelCSVFile(threads) : new CSVFile());
     }
     catch(Exception e) {
       throw new BuildException(e);
@@ -112,11 +81,10 @@ public class CSV2Properties extends Task {
     inputCSVFile = filename;
   }
 
-  public void setOutputDir(String dirname) {
-    outputDir = dirname;
-  }
-
-  public void setPropertyFileName(String filename) {
-    propertyFileName = filename;
+  public void setThreads(int threads) {
+    if(threads < 1) {
+      throw new BuildException("Attribute 'threads' must be at least 1");
+    }
+    this.threads = threads;
   }
 }
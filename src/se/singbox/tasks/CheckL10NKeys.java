@@ -29,14 +29,35 @@
 package se.singbox.tasks;
 
 import org.apache.tools.ant.BuildException;
-import org.apache.tools.ant.Task;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.DirSet;
+import org.apache.tools.ant.types.FileSet;
+import se.singbox.metrics.TaskMetrics;
+import se.singbox.scanner.FileHandler;
 import se.singbox.scanner.FileScanner;
 import se.singbox.scanner.FolderScanner;
+import se.singbox.scanner.IncrementalKeyChecker;
+import se.singbox.scanner.KeyCallMatcher;
+import se.singbox.scanner.KeyPattern;
+import se.singbox.scanner.KeyReport;
+import se.singbox.scanner.LocaleCheckResult;
 import se.singbox.scanner.LocaleKeyChecker;
+import se.singbox.scanner.ParallelScanner;
+import se.singbox.scanner.KeyWatcher;
+import se.singbox.scanner.ScanCache;
+import se.singbox.scanner.ShardResult;
+import se.singbox.scanner.SourceWalker;
+import se.singbox.scanner.WatchListener;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -45,50 +66,183 @@ import java.util.Set;
  * <ul>
  * <li>localeDir: A directory containing locale files to check</li>
  * <li>sourceDir: A directory containing the source code to scan</li>
- * <li>matchExtension: Only check for files with the given extension</li>
+ * <li>fileset, dirset (nested elements): Further source files to scan, or directories
+ * whose files are scanned like sourceDir.  sourceDir is optional when these are used.
+ * All roots are walked concurrently, and a file found in several of them (eg. a shared
+ * library folder) is only scanned once.  For example:
+ * <pre>
+ * &lt;fileset dir="src" includes="**&#47;*.as,**&#47;*.mxml"/&gt;
+ * &lt;dirset dir="../shared" includes="*&#47;src"/&gt;
+ * </pre></li>
+ * <li>matchExtension: Only check for files with the given extension.  Does not apply
+ * to nested filesets, which select their own files.</li>
+ * <li>excludes: Comma separated list of glob patterns relative to sourceDir (or to each
+ * nested dirset directory) for files and directories which should not be scanned,
+ * eg. "bin-debug/**,libs/**"</li>
+ * <li>threads: Number of threads used to walk directories and scan source files,
+ * defaults to the number of available processors.  Set to 1 to scan serially.</li>
+ * <li>queueSize: When scanning with several threads, files are scanned while the
+ * source directory is still being walked.  This is the maximum number of files
+ * waiting to be scanned, after which the walk pauses until the scanners catch up.</li>
+ * <li>cacheFile: File in which to cache the keys found in each source file between
+ * runs, so that only new or changed files are scanned again.  Disabled by default.</li>
+ * <li>matcher: How locale keys are found in source files, either "regex" (default) to
+ * match each line against a regular expression, or "native" to use a hand-written
+ * matcher which reads whole files and tolerates whitespace and newlines in calls</li>
+ * <li>keyPattern (nested element): Additional call patterns to recognize with the
+ * native matcher, see se.singbox.scanner.KeyPattern for the attributes.  All patterns
+ * are matched in a single pass over each file.  For example:
+ * <pre>
+ * &lt;keyPattern anchor="resourceManager" method="getStringArray" keyArgument="2"/&gt;
+ * &lt;keyPattern anchor="@Resource" keyAttribute="key"/&gt;
+ * </pre></li>
+ * <li>encoding: Character encoding of the source files, defaults to the platform's
+ * default encoding</li>
+ * <li>mapThreshold: With the native matcher, source files larger than this number of
+ * bytes are memory-mapped instead of read into a buffer</li>
+ * <li>watch: After the initial check, keep watching sourceDir and localeDir and
+ * report keys which become missing or unused as files change, until the build is
+ * interrupted.  Only the changed files are scanned again.  Ignores failOnError and
+ * cacheFile, and cannot be used with nested filesets or dirsets.</li>
+ * <li>summaryLevel: Ant log level of the summary line for each locale, one of
+ * "error", "warn", "info" (default), "verbose" or "debug"</li>
+ * <li>missingLevel: Ant log level of the missing keys, defaults to "warn"</li>
+ * <li>unusedLevel: Ant log level of the unused keys, defaults to "info"</li>
+ * <li>maxLoggedKeys: Maximum number of missing and of unused keys to log, defaults
+ * to 100.  Each key is logged once, together with the locales it is missing from.</li>
+ * <li>reportFile: Write all missing and unused keys to this file</li>
+ * <li>reportFormat: Format of reportFile, either "csv", "json" or "junit" (XML for
+ * CI servers).  Defaults to the format matching the file's extension.</li>
+ * <li>shardIndex, shardCount: Only scan shard shardIndex (starting at 0) of
+ * shardCount, as decided by a hash of each file's path relative to its root directory.
+ * Requires shardFile.  Each shard should use its own cacheFile, if any.</li>
+ * <li>shardFile: Write the keys found in this shard to this file, instead of
+ * checking the locales</li>
+ * <li>mergeShards: Comma separated list of the shardFiles of all shards.  Instead of
+ * scanning sourceDir, the keys found by all shards are combined and the locales are
+ * checked once.  For example, with two shards:
+ * <pre>
+ * &lt;checkL10NKeys ... shardIndex="0" shardCount="2" shardFile="build/shard0.keys"/&gt;
+ * &lt;checkL10NKeys ... shardIndex="1" shardCount="2" shardFile="build/shard1.keys"/&gt;
+ * &lt;checkL10NKeys localeDir="locale" mergeShards="build/shard0.keys,build/shard1.keys"/&gt;
+ * </pre></li>
  * </ul>
+ * The time spent walking sourceDir, scanning source files and loading the locales
+ * can be exported with the attributes of InstrumentedTask.
  */
-// TODO: It would be nice to support nested filesets with multiple sourceDir's
 @SuppressWarnings({"UnusedDeclaration"})
 // Is a top-level class
-public class CheckL10NKeys extends Task {
+public class CheckL10NKeys extends InstrumentedTask {
   private String localeDir = null;
   private String sourceDir = null;
+  private List<FileSet> fileSets = new ArrayList<FileSet>();
+  private List<DirSet> dirSets = new ArrayList<DirSet>();
+  private String sourceDescription = null;
   private String matchExtension = null;
+  private String excludes = null;
   private Boolean warnUnused = false;
   private Boolean failOnError = true;
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private int queueSize = ParallelScanner.DEFAULT_QUEUE_SIZE;
+  private String cacheFile = null;
+  private String matcher = FileScanner.MATCHER_REGEX;
+  private String encoding = null;
+  private List<KeyPattern> keyPatterns = new ArrayList<KeyPattern>();
+  private long mapThreshold = FileScanner.DEFAULT_MAP_THRESHOLD;
+  private Boolean watch = false;
+  private int summaryLevel = Project.MSG_INFO;
+  private int missingLevel = Project.MSG_WARN;
+  private int unusedLevel = Project.MSG_INFO;
+  private int maxLoggedKeys = 100;
+  private String reportFile = null;
+  private String reportFormat = null;
+  private int shardIndex = 0;
+  private int shardCount = 1;
+  private String shardFile = null;
+  private String mergeShards = null;
+  private int numFilesScanned = 0;
 
   public void execute() {
     if(localeDir == null) {
       throw new BuildException("Attribute 'localeDir' must be defined");
     }
-    else if(sourceDir == null) {
-      throw new BuildException("Attribute 'sourceDir' must be defined");
+    else if(sourceDir == null && fileSets.isEmpty() && dirSets.isEmpty() && mergeShards == null) {
+      throw new BuildException("Attribute 'sourceDir' or a nested fileset or dirset must be defined");
+    }
+    else if(shardIndex >= shardCount) {
+      throw new BuildException("Attribute 'shardIndex' must be less than 'shardCount'");
+    }
+    else if(shardCount > 1 && shardFile == null) {
+      throw new BuildException("Scanning a shard requires 'shardFile'");
+    }
+    else if(mergeShards != null && (shardFile != null || shardCount > 1)) {
+      throw new BuildException("Attribute 'mergeShards' cannot be combined with scanning a shard");
+    }
+    else if(watch && (shardFile != null || mergeShards != null)) {
+      throw new BuildException("Attribute 'watch' cannot be combined with shards");
+    }
+    else if(watch && (!fileSets.isEmpty() || !dirSets.isEmpty())) {
+      throw new BuildException("Attribute 'watch' cannot be combined with nested filesets or dirsets");
+    }
+    else if(!keyPatterns.isEmpty() && !FileScanner.MATCHER_NATIVE.equals(matcher)) {
+      throw new BuildException("Nested keyPattern elements require matcher=\"" + FileScanner.MATCHER_NATIVE + "\"");
+    }
+    else if(reportFormat != null && reportFile == null) {
+      throw new BuildException("Attribute 'reportFormat' requires 'reportFile'");
     }
 
     try {
+      TaskMetrics metrics = startMetrics();
       FolderScanner fs = new FolderScanner();
+      fs.setThreads(threads);
+      if(excludes != null) {
+        fs.setExcludes(excludes);
+      }
 
-      // Get all source files to be scanned
-      Collection<File> sourceFiles = fs.scanFolder(sourceDir, matchExtension);
-      Set<String> keysFound = new HashSet<String>();
-      for(File oneFile : sourceFiles) {
-        FileScanner scanner = new FileScanner();
-        keysFound.addAll(scanner.scan(oneFile));
+      FileScanner scanner = new FileScanner();
+      scanner.setMatcher(matcher);
+      if(!keyPatterns.isEmpty()) {
+        List<KeyPattern> allPatterns = KeyCallMatcher.getDefaultPatterns();
+        allPatterns.addAll(keyPatterns);
+        scanner.setKeyPatterns(allPatterns);
+      }
+      scanner.setMapThreshold(mapThreshold);
+      scanner.setMetrics(metrics);
+      if(encoding != null) {
+        scanner.setEncoding(encoding);
       }
 
-      // Now verify each localization file has every key in the hashset
-      Collection<File> localeFiles = fs.scanFolder(localeDir, "properties");
-      Boolean result = true;
-      for(File oneFile : localeFiles) {
-        log("Checking " + sourceDir + " for locale " + oneFile.getParentFile().getName());
-        LocaleKeyChecker checker = new LocaleKeyChecker();
-        result &= checker.check(oneFile, keysFound);
-        if(warnUnused) {
-          checker.warnUnused(oneFile, keysFound);
+      if(watch) {
+        watch(fs, scanner, metrics);
+        return;
+      }
+
+      Set<String> keysFound;
+      if(mergeShards != null) {
+        keysFound = mergeShards();
+      }
+      else {
+        fs.setShard(shardIndex, shardCount);
+        keysFound = scanSources(fs, scanner, metrics);
+        if(shardFile != null) {
+          new ShardResult(shardIndex, shardCount, scanner.getSettings(), numFilesScanned, keysFound).write(new File(shardFile));
+          log("Wrote " + keysFound.size() + " keys found in " + numFilesScanned + " files of shard " + shardIndex +
+            " of " + shardCount + " to " + shardFile);
+          // The locales are checked once all shards are merged
+          publishMetrics(metrics);
+          return;
         }
       }
 
+      // Now verify each localization file has every key in the hashset
+      long loadStart = System.nanoTime();
+      Collection<File> localeFiles = new FolderScanner().scanFolder(localeDir, "properties");
+      List<LocaleCheckResult> localeResults = new LocaleKeyChecker().checkAll(localeFiles, keysFound, warnUnused, threads);
+      metrics.addTimeSince(TaskMetrics.PHASE_LOAD_LOCALES, loadStart);
+      metrics.addCount(TaskMetrics.PHASE_LOAD_LOCALES, TaskMetrics.COUNT_FILES, localeFiles.size());
+
+      boolean result = reportResults(localeResults);
+      publishMetrics(metrics);
       if(!result && failOnError) {
         throw new BuildException("One or more locales files are missing localization keys");
       }
@@ -98,6 +252,201 @@ public class CheckL10NKeys extends Task {
     }
   }
 
+  /**
+   * Scans the source files of this task's shard, which is all of them unless sharding
+   * @return The keys found
+   */
+  private Set<String> scanSources(FolderScanner fs, FileScanner scanner, TaskMetrics metrics) throws IOException {
+    ScanCache cache = null;
+    if(cacheFile != null) {
+      cache = new ScanCache(new File(cacheFile), scanner.getSettings());
+      if(!cache.load()) {
+        log("No usable scan cache in " + cacheFile + ", scanning all files");
+      }
+    }
+
+    SourceWalker walker = createSourceWalker(fs);
+    sourceDescription = walker.describeRoots();
+    Set<String> keysFound;
+    long scanStart = System.nanoTime();
+    if(threads > 1) {
+      // Source files are scanned while the folder is still being walked
+      ParallelScanner parallelScanner = new ParallelScanner(threads, scanner, queueSize);
+      parallelScanner.setCache(cache);
+      keysFound = parallelScanner.scan(walker);
+      numFilesScanned = parallelScanner.getNumFilesQueued();
+      metrics.addTime(TaskMetrics.PHASE_WALK, parallelScanner.getWalkNanos());
+      metrics.addCount(TaskMetrics.PHASE_WALK, TaskMetrics.COUNT_FILES, parallelScanner.getNumFilesQueued());
+      log("Scanned " + parallelScanner.getNumFilesQueued() + " files; walker waited " +
+        parallelScanner.getNumProducerWaits() + " times (" + parallelScanner.getProducerWaitMillis() +
+        " ms) on a full queue, scanners waited " + parallelScanner.getNumWorkerWaits() + " times (" +
+        parallelScanner.getWorkerWaitMillis() + " ms) on an empty queue, peak queue depth " +
+        parallelScanner.getMaxQueueDepth() + "/" + queueSize, Project.MSG_VERBOSE);
+    }
+    else {
+      // Get all source files to be scanned
+      Collection<File> sourceFiles = walker.collectFiles();
+      metrics.addTimeSince(TaskMetrics.PHASE_WALK, scanStart);
+      metrics.addCount(TaskMetrics.PHASE_WALK, TaskMetrics.COUNT_FILES, sourceFiles.size());
+      numFilesScanned = sourceFiles.size();
+      scanStart = System.nanoTime();
+      keysFound = new HashSet<String>();
+      for(File oneFile : sourceFiles) {
+        if(cache != null) {
+          keysFound.addAll(cache.scan(oneFile, scanner));
+        }
+        else {
+          keysFound.addAll(scanner.scan(oneFile));
+        }
+      }
+    }
+    if(walker.getNumDuplicates() > 0) {
+      log("Skipped " + walker.getNumDuplicates() + " files found in more than one source root", Project.MSG_VERBOSE);
+    }
+    // With several threads, this includes the walk as files are scanned during it
+    metrics.addTimeSince(TaskMetrics.PHASE_SCAN, scanStart);
+
+    if(cache != null) {
+      log("Scan cache: " + cache.getNumHits() + " files unchanged, " + cache.getNumMisses() +
+        " scanned, " + cache.getNumRemoved() + " removed");
+      cache.save();
+    }
+    return keysFound;
+  }
+
+  /**
+   * @return Walker of sourceDir and of all nested filesets and dirsets
+   */
+  private SourceWalker createSourceWalker(FolderScanner fs) {
+    SourceWalker walker = new SourceWalker();
+    walker.setThreads(threads);
+    if(sourceDir != null) {
+      walker.addFolder(fs, sourceDir, matchExtension);
+    }
+    for(DirSet dirSet : dirSets) {
+      DirectoryScanner ds = dirSet.getDirectoryScanner(getProject());
+      for(String dirName : ds.getIncludedDirectories()) {
+        walker.addFolder(fs, new File(ds.getBasedir(), dirName).getPath(), matchExtension);
+      }
+    }
+    for(final FileSet fileSet : fileSets) {
+      walker.addRoot(new SourceWalker.Root() {
+        public String getName() {
+          return fileSet.getDir(getProject()).getPath();
+        }
+
+        public void walk(FileHandler handler) {
+          DirectoryScanner ds = fileSet.getDirectoryScanner(getProject());
+          for(String fileName : ds.getIncludedFiles()) {
+            String relativePath = fileName.replace(File.separatorChar, '/');
+            if(shardCount == 1 || FolderScanner.getShard(relativePath, shardCount) == shardIndex) {
+              handler.handleFile(new File(ds.getBasedir(), fileName));
+            }
+          }
+        }
+      });
+    }
+    return walker;
+  }
+
+  /**
+   * Combines the keys found by all shards, see ShardResult
+   * @return The keys found in any shard
+   */
+  private Set<String> mergeShards() throws IOException {
+    List<ShardResult> results = new ArrayList<ShardResult>();
+    for(String filename : mergeShards.split(",")) {
+      if(filename.trim().length() > 0) {
+        results.add(ShardResult.read(new File(filename.trim())));
+      }
+    }
+    Set<String> keysFound = ShardResult.merge(results);
+    int numFiles = 0;
+    for(ShardResult result : results) {
+      numFiles += result.getNumFiles();
+    }
+    log("Merged " + keysFound.size() + " keys found in " + numFiles + " files by " + results.size() + " shards");
+    return keysFound;
+  }
+
+  /**
+   * Logs a summary for each locale and the missing and unused keys, and writes the report file
+   * @return True if no locale is missing any keys
+   */
+  private boolean reportResults(List<LocaleCheckResult> localeResults) throws IOException {
+    KeyReport report = new KeyReport(localeResults);
+    for(LocaleCheckResult localeResult : localeResults) {
+      String summary = "Checking " + (sourceDescription != null ? sourceDescription : "merged shards") + " for locale " + localeResult.getLocale() + ": ";
+      if(localeResult.isComplete()) {
+        summary += "matched all " + localeResult.getMatchedCount() + " locale strings";
+      }
+      else {
+        summary += "found " + localeResult.getMissingKeys().size() + " missing locale strings";
+      }
+      if(localeResult.getUnusedKeys() != null && !localeResult.getUnusedKeys().isEmpty()) {
+        summary += ", " + localeResult.getUnusedKeys().size() + " unused";
+      }
+      log(summary, summaryLevel);
+    }
+    logKeys(report, report.getMissingKeys(), "Missing", missingLevel);
+    logKeys(report, report.getUnusedKeys(), "Unused", unusedLevel);
+
+    if(reportFile != null) {
+      report.write(new File(reportFile), reportFormat != null ? reportFormat : KeyReport.getFormat(reportFile));
+      log("Wrote locale key report to " + reportFile, summaryLevel);
+    }
+    return report.isComplete();
+  }
+
+  private void logKeys(KeyReport report, Map<String, BitSet> keys, String kind, int level) {
+    int numLogged = 0;
+    for(Map.Entry<String, BitSet> key : keys.entrySet()) {
+      if(numLogged == maxLoggedKeys) {
+        log("... and " + (keys.size() - numLogged) + " more " + kind.toLowerCase() + " locale keys" +
+          (reportFile != null ? ", see " + reportFile : ""), level);
+        break;
+      }
+      log(kind + " locale key '" + key.getKey() + "' in " + report.describeLocales(key.getValue()), level);
+      numLogged++;
+    }
+  }
+
+  /**
+   * Checks all files once, then keeps re-checking changed files until interrupted
+   */
+  private void watch(FolderScanner fs, FileScanner scanner, TaskMetrics metrics) throws Exception {
+    IncrementalKeyChecker checker = new IncrementalKeyChecker(scanner, warnUnused);
+    sourceDescription = sourceDir;
+    long startTime = System.nanoTime();
+    Collection<File> sourceFiles = fs.scanFolder(sourceDir, matchExtension);
+    metrics.addTimeSince(TaskMetrics.PHASE_WALK, startTime);
+    metrics.addCount(TaskMetrics.PHASE_WALK, TaskMetrics.COUNT_FILES, sourceFiles.size());
+    startTime = System.nanoTime();
+    checker.addSourceFiles(sourceFiles, threads);
+    metrics.addTimeSince(TaskMetrics.PHASE_SCAN, startTime);
+    startTime = System.nanoTime();
+    Collection<File> localeFiles = new FolderScanner().scanFolder(localeDir, "properties");
+    checker.addLocaleFiles(localeFiles);
+    List<LocaleCheckResult> localeResults = checker.checkAll();
+    metrics.addTimeSince(TaskMetrics.PHASE_LOAD_LOCALES, startTime);
+    metrics.addCount(TaskMetrics.PHASE_LOAD_LOCALES, TaskMetrics.COUNT_FILES, localeFiles.size());
+    reportResults(localeResults);
+    // Only the initial check is measured, as watching never ends by itself
+    publishMetrics(metrics);
+    scanner.setMetrics(null);
+
+    log("Watching " + sourceDir + " and " + localeDir + " for changes");
+    new KeyWatcher(checker, fs, sourceDir, matchExtension, localeDir).run(new WatchListener() {
+      public void keysChanged(String message) {
+        log(message);
+      }
+
+      public void filesChecked(int numFiles, long elapsedMillis) {
+        log("Checked " + numFiles + " changed files in " + elapsedMillis + " ms", Project.MSG_VERBOSE);
+      }
+    });
+  }
+
   public void setLocaleDir(String dir) {
     localeDir = dir;
   }
@@ -106,10 +455,22 @@ public class CheckL10NKeys extends Task {
     sourceDir = dir;
   }
 
+  public void addFileset(FileSet fileSet) {
+    fileSets.add(fileSet);
+  }
+
+  public void addDirset(DirSet dirSet) {
+    dirSets.add(dirSet);
+  }
+
   public void setMatchExtension(String extension) {
     matchExtension = extension;
   }
 
+  public void setExcludes(String excludes) {
+    this.excludes = excludes;
+  }
+
   public void setWarnUnused(Boolean warnUnused) {
     this.warnUnused = warnUnused;
   }
@@ -117,4 +478,125 @@ public class CheckL10NKeys extends Task {
   public void setFailOnError(Boolean failOnError) {
     this.failOnError = failOnError;
   }
+
+  public void setCacheFile(String filename) {
+    cacheFile = filename;
+  }
+
+  public void setMatcher(String matcher) {
+    if(!FileScanner.MATCHER_REGEX.equals(matcher) && !FileScanner.MATCHER_NATIVE.equals(matcher)) {
+      throw new BuildException("Attribute 'matcher' must be '" + FileScanner.MATCHER_REGEX +
+        "' or '" + FileScanner.MATCHER_NATIVE + "'");
+    }
+    this.matcher = matcher;
+  }
+
+  public void addConfiguredKeyPattern(KeyPattern pattern) {
+    try {
+      pattern.validate();
+    }
+    catch(IllegalArgumentException e) {
+      throw new BuildException(e.getMessage());
+    }
+    keyPatterns.add(pattern);
+  }
+
+  public void setEncoding(String encoding) {
+    this.encoding = encoding;
+  }
+
+  public void setMapThreshold(long mapThreshold) {
+    this.mapThreshold = mapThreshold;
+  }
+
+  public void setSummaryLevel(String level) {
+    summaryLevel = parseLevel("summaryLevel", level);
+  }
+
+  public void setMissingLevel(String level) {
+    missingLevel = parseLevel("missingLevel", level);
+  }
+
+  public void setUnusedLevel(String level) {
+    unusedLevel = parseLevel("unusedLevel", level);
+  }
+
+  private static int parseLevel(String attribute, String level) {
+    if(level.equals("error")) {
+      return Project.MSG_ERR;
+    }
+    else if(level.equals("warn") || level.equals("warning")) {
+      return Project.MSG_WARN;
+    }
+    else if(level.equals("info")) {
+      return Project.MSG_INFO;
+    }
+    else if(level.equals("verbose")) {
+      return Project.MSG_VERBOSE;
+    }
+    else if(level.equals("debug")) {
+      return Project.MSG_DEBUG;
+    }
+    throw new BuildException("Attribute '" + attribute + "' must be 'error', 'warn', 'info', 'verbose' or 'debug'");
+  }
+
+  public void setMaxLoggedKeys(int maxLoggedKeys) {
+    if(maxLoggedKeys < 0) {
+      throw new BuildException("Attribute 'maxLoggedKeys' must not be negative");
+    }
+    this.maxLoggedKeys = maxLoggedKeys;
+  }
+
+  public void setReportFile(String filename) {
+    reportFile = filename;
+  }
+
+  public void setReportFormat(String format) {
+    if(!KeyReport.FORMAT_CSV.equals(format) && !KeyReport.FORMAT_JSON.equals(format) &&
+       !KeyReport.FORMAT_JUNIT.equals(format)) {
+      throw new BuildException("Attribute 'reportFormat' must be '" + KeyReport.FORMAT_CSV + "', '" +
+        KeyReport.FORMAT_JSON + "' or '" + KeyReport.FORMAT_JUNIT + "'");
+    }
+    reportFormat = format;
+  }
+
+  public void setShardIndex(int shardIndex) {
+    if(shardIndex < 0) {
+      throw new BuildException("Attribute 'shardIndex' must not be negative");
+    }
+    this.shardIndex = shardIndex;
+  }
+
+  public void setShardCount(int shardCount) {
+    if(shardCount < 1) {
+      throw new BuildException("Attribute 'shardCount' must be at least 1");
+    }
+    this.shardCount = shardCount;
+  }
+
+  public void setShardFile(String filename) {
+    shardFile = filename;
+  }
+
+  public void setMergeShards(String filenames) {
+    mergeShards = filenames;
+  }
+
+  public void setWatch(Boolean watch) {
+    this.watch = watch;
+  }
+
+  public void setQueueSize(int queueSize) {
+    if(queueSize < 1) {
+      throw new BuildException("Attribute 'queueSize' must be at least 1");
+    }
+    this.queueSize = queueSize;
+  }
+
+  public void setThreads(int threads) {
+    if(threads < 1) {
+      throw new BuildException("Attribute 'threads' must be at least 1");
+    }
+    this.threads = threads;
+  }
 }
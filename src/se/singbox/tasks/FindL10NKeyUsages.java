@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.tasks;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import se.singbox.scanner.FileScanner;
+import se.singbox.scanner.FolderScanner;
+import se.singbox.scanner.KeyCallMatcher;
+import se.singbox.scanner.KeyPattern;
+import se.singbox.scanner.KeyUsage;
+import se.singbox.scanner.ParallelScanner;
+import se.singbox.scanner.UsageIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * This task looks up where locale keys are used in the source code, using an
+ * index of all key references which is kept on disk between runs.  When a
+ * sourceDir is given, the index is first brought up to date by scanning only the
+ * source files which changed since it was last saved; otherwise the saved index
+ * is queried as is, without touching the source tree.  It accepts the following
+ * attribute arguments:
+ * <ul>
+ * <li>indexFile: File in which the usage index is stored</li>
+ * <li>key: The key to look up, or a prefix followed by '*', eg. "LOGIN_*".  If not
+ * given, the index is only updated.</li>
+ * <li>property: Name of a property to set to the comma separated usages of the key,
+ * each in the form path:line:column</li>
+ * <li>sourceDir: A directory containing the source code to index</li>
+ * <li>matchExtension: Only index files with the given extension</li>
+ * <li>excludes: Comma separated list of glob patterns relative to sourceDir for files
+ * and directories which should not be indexed</li>
+ * <li>threads: Number of threads used to scan changed source files, defaults to the
+ * number of available processors</li>
+ * <li>matcher: Either "regex" (default) or "native", see CheckL10NKeys</li>
+ * <li>keyPattern (nested element): Additional call patterns to recognize with the
+ * native matcher, see CheckL10NKeys</li>
+ * <li>encoding: Character encoding of the source files</li>
+ * </ul>
+ * An index is only valid for the matcher, key patterns and encoding it was built
+ * with, so these should be the same when querying and updating.
+ */
+@SuppressWarnings({"UnusedDeclaration"})
+// Is a top-level class
+public class FindL10NKeyUsages extends Task {
+  private String indexFile = null;
+  private String key = null;
+  private String property = null;
+  private String sourceDir = null;
+  private String matchExtension = null;
+  private String excludes = null;
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private String matcher = FileScanner.MATCHER_REGEX;
+  private String encoding = null;
+  private List<KeyPattern> keyPatterns = new ArrayList<KeyPattern>();
+
+  public void execute() {
+    if(indexFile == null) {
+      throw new BuildException("Attribute 'indexFile' must be defined");
+    }
+    else if(key == null && sourceDir == null) {
+      throw new BuildException("Either 'key' or 'sourceDir' must be defined");
+    }
+    else if(property != null && key == null) {
+      throw new BuildException("Attribute 'property' requires 'key'");
+    }
+    else if(!keyPatterns.isEmpty() && !FileScanner.MATCHER_NATIVE.equals(matcher)) {
+      throw new BuildException("Nested keyPattern elements require matcher=\"" + FileScanner.MATCHER_NATIVE + "\"");
+    }
+
+    try {
+      FileScanner scanner = new FileScanner();
+      scanner.setMatcher(matcher);
+      if(!keyPatterns.isEmpty()) {
+        List<KeyPattern> allPatterns = KeyCallMatcher.getDefaultPatterns();
+        allPatterns.addAll(keyPatterns);
+        scanner.setKeyPatterns(allPatterns);
+      }
+      if(encoding != null) {
+        scanner.setEncoding(encoding);
+      }
+
+      UsageIndex index = new UsageIndex(new File(indexFile), scanner.getSettings());
+      if(!index.load()) {
+        if(sourceDir == null) {
+          throw new BuildException("No usable usage index in " + indexFile + ", set 'sourceDir' to build it");
+        }
+        log("No usable usage index in " + indexFile + ", scanning all files");
+      }
+
+      if(sourceDir != null) {
+        update(index, scanner);
+      }
+
+      if(key != null) {
+        query(index);
+      }
+    }
+    catch(BuildException e) {
+      throw e;
+    }
+    catch(Exception e) {
+      throw new BuildException(e);
+    }
+  }
+
+  private void update(final UsageIndex index, FileScanner scanner) throws IOException {
+    FolderScanner fs = new FolderScanner();
+    fs.setThreads(threads);
+    if(excludes != null) {
+      fs.setExcludes(excludes);
+    }
+
+    if(threads > 1) {
+      ParallelScanner parallelScanner = new ParallelScanner(threads, scanner) {
+        protected Set<String> scanFile(FileScanner fileScanner, File file) throws IOException {
+          return index.scan(file, fileScanner);
+        }
+      };
+      parallelScanner.scan(fs, sourceDir, matchExtension);
+    }
+    else {
+      for(File sourceFile : fs.scanFolder(sourceDir, matchExtension)) {
+        index.scan(sourceFile, scanner);
+      }
+    }
+
+    log("Usage index: " + index.getNumHits() + " files unchanged, " + index.getNumMisses() +
+      " scanned, " + index.getNumRemoved() + " removed", Project.MSG_VERBOSE);
+    index.save();
+  }
+
+  private void query(UsageIndex index) {
+    SortedMap<String, List<KeyUsage>> usages = index.findUsages(key);
+    StringBuilder propertyValue = new StringBuilder();
+    int numUsages = 0;
+    for(Map.Entry<String, List<KeyUsage>> fileUsages : usages.entrySet()) {
+      for(KeyUsage usage : fileUsages.getValue()) {
+        String location = fileUsages.getKey() + ":" + usage.getLine() + ":" + usage.getColumn();
+        log(location + ": " + usage.getKey());
+        if(propertyValue.length() > 0) {
+          propertyValue.append(',');
+        }
+        propertyValue.append(location);
+        numUsages++;
+      }
+    }
+
+    log("Found " + numUsages + " usages of " + key + " in " + usages.size() + " of " +
+      index.getNumFiles() + " indexed files");
+    if(property != null) {
+      getProject().setNewProperty(property, propertyValue.toString());
+    }
+  }
+
+  public void setIndexFile(String filename) {
+    indexFile = filename;
+  }
+
+  public void setKey(String key) {
+    this.key = key;
+  }
+
+  public void setProperty(String property) {
+    this.property = property;
+  }
+
+  public void setSourceDir(String dir) {
+    sourceDir = dir;
+  }
+
+  public void setMatchExtension(String extension) {
+    matchExtension = extension;
+  }
+
+  public void setExcludes(String excludes) {
+    this.excludes = excludes;
+  }
+
+  public void setThreads(int threads) {
+    if(threads < 1) {
+      throw new BuildException("Attribute 'threads' must be at least 1");
+    }
+    this.threads = threads;
+  }
+
+  public void setMatcher(String matcher) {
+    if(!FileScanner.MATCHER_REGEX.equals(matcher) && !FileScanner.MATCHER_NATIVE.equals(matcher)) {
+      throw new BuildException("Attribute 'matcher' must be '" + FileScanner.MATCHER_REGEX +
+        "' or '" + FileScanner.MATCHER_NATIVE + "'");
+    }
+    this.matcher = matcher;
+  }
+
+  public void addConfiguredKeyPattern(KeyPattern pattern) {
+    try {
+      pattern.validate();
+    }
+    catch(IllegalArgumentException e) {
+      throw new BuildException(e.getMessage());
+    }
+    keyPatterns.add(pattern);
+  }
+
+  public void setEncoding(String encoding) {
+    this.encoding = encoding;
+  }
+}
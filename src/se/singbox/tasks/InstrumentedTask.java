@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.tasks;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import se.singbox.metrics.TaskMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Base class for tasks which measure the time spent in each of their phases.  It
+ * accepts the following attribute arguments:
+ * <ul>
+ * <li>metricsPrefix: Set the metrics as properties starting with this prefix, eg.
+ * "l10n.metrics" sets l10n.metrics.scan.millis, see TaskMetrics.toProperties() for
+ * all property names.  Disabled by default.</li>
+ * <li>metricsFile: Write the metrics to this JSON file.  Disabled by default.</li>
+ * <li>slowestFiles: Number of slowest files to report, defaults to 10</li>
+ * </ul>
+ */
+public abstract class InstrumentedTask extends Task {
+  private String metricsPrefix = null;
+  private String metricsFile = null;
+  private int slowestFiles = TaskMetrics.DEFAULT_SLOWEST_FILES;
+
+  /**
+   * Creates the metrics for one execution of the task, and starts its total time
+   * @return New metrics
+   */
+  protected TaskMetrics startMetrics() {
+    return new TaskMetrics(getTaskName(), slowestFiles);
+  }
+
+  /**
+   * Logs the metrics, and sets them as properties and writes them to a file if requested
+   * @param metrics Metrics returned by startMetrics()
+   * @throws IOException If the metrics file could not be written
+   */
+  protected void publishMetrics(TaskMetrics metrics) throws IOException {
+    Map<String, String> properties = metrics.toProperties(metricsPrefix != null ? metricsPrefix : getTaskName());
+    for(Map.Entry<String, String> property : properties.entrySet()) {
+      log(property.getKey() + "=" + property.getValue(), Project.MSG_VERBOSE);
+      if(metricsPrefix != null) {
+        getProject().setNewProperty(property.getKey(), property.getValue());
+      }
+    }
+    if(metricsFile != null) {
+      metrics.writeJson(new File(metricsFile));
+    }
+  }
+
+  public void setMetricsPrefix(String prefix) {
+    metricsPrefix = prefix;
+  }
+
+  public void setMetricsFile(String filename) {
+    metricsFile = filename;
+  }
+
+  public void setSlowestFiles(int slowestFiles) {
+    if(slowestFiles < 0) {
+      throw new BuildException("Attribute 'slowestFiles' must not be negative");
+    }
+    this.slowestFiles = slowestFiles;
+  }
+}
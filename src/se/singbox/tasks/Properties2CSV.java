@@ -29,17 +29,26 @@
 package se.singbox.tasks;
 
 import org.apache.tools.ant.BuildException;
-import org.apache.tools.ant.Task;
-import se.singbox.filetypes.CSVFile;
-import se.singbox.filetypes.LocaleStringDictionary;
-import se.singbox.filetypes.LocaleStringSet;
+import org.apache.tools.ant.Project;
+import se.singbox.filetypes.CSVWriter;
+import se.singbox.filetypes.GeneratedFile;
+import se.singbox.filetypes.LocaleRowWriter;
+import se.singbox.filetypes.XLSXWriter;
+import se.singbox.metrics.TaskMetrics;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
-import java.util.HashMap;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * This task generates a comma-separated values (CSV) file from an existing
@@ -49,14 +58,21 @@ import java.util.Properties;
  * <ul>
  * <li>inputPropertiesFile: A single file containing localization keys</li>
  * <li>inputPropertiesDir: A directory containing localization properties files</li>
- * <li>outputCSVFile: The output file to generate</li>
+ * <li>outputCSVFile: The output file to generate.  Files ending with .xlsx are written as
+ * Excel 2007 workbooks, which can be read by XLS2Properties.</li>
  * <li>propertyFileName: The filename to expect when reading a directory of
  * properties files.</li>
  * </ul>
+ * Keys are written in sorted order, with one column per locale in sorted order.  Rows
+ * are streamed to the output file in either format, so exporting a workbook takes no
+ * more memory than exporting a CSV file.  If the output file already has exactly this
+ * content it is left alone, otherwise it is replaced atomically.
+ * The time spent loading the properties files and writing the output file can be
+ * exported with the attributes of InstrumentedTask.
  */
 @SuppressWarnings({"UnusedDeclaration"})
 // Is a top-level class
-public class Properties2CSV extends Task {
+public class Properties2CSV extends InstrumentedTask {
   private String inputPropertiesFile = null;
   private String inputPropertiesDir = null;
   private String outputCSVFile = null;
@@ -72,9 +88,8 @@ public class Properties2CSV extends Task {
     }
 
     // Stores file readers for each locale properties file
-    Map<String, InputStreamReader> localeFileReaders = new HashMap<String, InputStreamReader>();
-    // Used to store the names of the different parsed locales
-    LocaleStringSet localeNames = new LocaleStringSet();
+    Map<String, InputStreamReader> localeFileReaders = new TreeMap<String, InputStreamReader>();
+    TaskMetrics metrics = startMetrics();
 
     try {
       if(inputPropertiesFile != null) {
@@ -96,6 +111,7 @@ public class Properties2CSV extends Task {
         // Push into the locale map
         InputStreamReader inStream = new InputStreamReader(new FileInputStream(inputPropertiesFile), "UTF8");
         localeFileReaders.put(locale, inStream);
+        metrics.addCount(TaskMetrics.PHASE_LOAD_LOCALES, TaskMetrics.COUNT_BYTES, new File(inputPropertiesFile).length());
       }
       else if(inputPropertiesDir != null) {
         // Build a list of subdirectories for this dir
@@ -105,9 +121,10 @@ public class Properties2CSV extends Task {
             if(child.getName().matches(LOCALE_DIR_MATCH_PATTERN)) {
               File childPropertiesFile = new File(child.getPath() + System.getProperty("file.separator") + propertyFileName);
               if(childPropertiesFile.exists()) {
-                System.out.println("Found properties file for locale: '" + child.getName() + "'");
+                log("Found properties file for locale '" + child.getName() + "'", Project.MSG_VERBOSE);
                 InputStreamReader inStream = new InputStreamReader(new FileInputStream(childPropertiesFile), "UTF8");
                 localeFileReaders.put(child.getName(), inStream);
+                metrics.addCount(TaskMetrics.PHASE_LOAD_LOCALES, TaskMetrics.COUNT_BYTES, childPropertiesFile.length());
               }
               else {
                 throw new BuildException("Could not find '" + propertyFileName + "' in directory '" + child.getPath() + "'");
@@ -125,33 +142,81 @@ public class Properties2CSV extends Task {
     }
 
     try {
-      LocaleStringDictionary inKeys = new LocaleStringDictionary();
+      long loadStart = System.nanoTime();
+      List<String> localeNames = new ArrayList<String>(localeFileReaders.keySet());
+      List<Properties> localeStrings = new ArrayList<Properties>();
+      Set<String> allKeys = new HashSet<String>();
 
-      for(String localeName : localeFileReaders.keySet()) {
+      for(String localeName : localeNames) {
         // Make a map of locale keys based on the properties file
         Properties props = new Properties();
-        props.load(localeFileReaders.get(localeName));
-        localeNames.put(localeName, null);
-
-        for(Object key : props.keySet()) {
-          String value = (String)props.get(key);
-          if(!isComment((String)key) && !isComment(value) && !value.isEmpty()) {
-            // Add to existing locale key map, otherwise create a new map if it
-            // doesn't exist yet
-            LocaleStringSet stringSet = inKeys.get(key.toString());
-            if(stringSet == null) {
-              stringSet = new LocaleStringSet();
-            }
-            // System.out.println("Adding key '" + key.toString() + "', locale: '" + localeName + "', value: '" + value + "'");
-            stringSet.put(localeName, value);
-            inKeys.put(key.toString(), stringSet);
+        InputStreamReader reader = localeFileReaders.get(localeName);
+        try {
+          props.load(reader);
+        }
+        finally {
+          reader.close();
+        }
+        metrics.addCount(TaskMetrics.PHASE_LOAD_LOCALES, TaskMetrics.COUNT_FILES, 1);
+        metrics.addCount(TaskMetrics.PHASE_LOAD_LOCALES, TaskMetrics.COUNT_ROWS, props.size());
+
+        // Comments and empty strings are left out of the CSV file
+        Iterator<Map.Entry<Object, Object>> entries = props.entrySet().iterator();
+        while(entries.hasNext()) {
+          Map.Entry<Object, Object> entry = entries.next();
+          String key = (String)entry.getKey();
+          String value = (String)entry.getValue();
+          if(isComment(key) || isComment(value) || value.isEmpty()) {
+            entries.remove();
+          }
+          else {
+            allKeys.add(key);
           }
         }
+        localeStrings.add(props);
       }
 
-      inKeys.put("LOCALE KEY", localeNames);
-      CSVFile outFile = new CSVFile();
-      outFile.write(outputCSVFile, inKeys);
+      List<String> sortedKeys = new ArrayList<String>(allKeys);
+      Collections.sort(sortedKeys);
+      metrics.addTimeSince(TaskMetrics.PHASE_LOAD_LOCALES, loadStart);
+
+      // Rows are streamed to the file straight from the loaded properties
+      long writeStart = System.nanoTime();
+      GeneratedFile generatedFile = new GeneratedFile(new File(outputCSVFile));
+      LocaleRowWriter outFile;
+      if(outputCSVFile.toLowerCase().endsWith(".xlsx")) {
+        outFile = new XLSXWriter(generatedFile.getOutputStream());
+      }
+      else {
+        outFile = new CSVWriter(new OutputStreamWriter(generatedFile.getOutputStream(), "UTF8"));
+      }
+      try {
+        outFile.handleHeader(localeNames);
+        List<CharSequence> values = new ArrayList<CharSequence>(localeNames.size());
+        for(String key : sortedKeys) {
+          values.clear();
+          for(Properties props : localeStrings) {
+            values.add(props.getProperty(key));
+          }
+          outFile.handleRow(key, values);
+        }
+        outFile.close();
+        if(generatedFile.commit()) {
+          log("Wrote " + outFile.getNumRows() + " keys to " + outputCSVFile);
+          metrics.addCount(TaskMetrics.PHASE_WRITE_OUTPUTS, TaskMetrics.COUNT_FILES, 1);
+        }
+        else {
+          log(outputCSVFile + " is unchanged");
+          metrics.addCount(TaskMetrics.PHASE_WRITE_OUTPUTS, TaskMetrics.COUNT_SKIPPED, 1);
+        }
+      }
+      finally {
+        generatedFile.close();
+      }
+      metrics.addTimeSince(TaskMetrics.PHASE_WRITE_OUTPUTS, writeStart);
+      metrics.addCount(TaskMetrics.PHASE_WRITE_OUTPUTS, TaskMetrics.COUNT_BYTES, new File(outputCSVFile).length());
+      metrics.addCount(TaskMetrics.PHASE_WRITE_OUTPUTS, TaskMetrics.COUNT_ROWS, outFile.getNumRows());
+      publishMetrics(metrics);
     }
     catch(Exception e) {
       throw new BuildException(e);
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2009 Singbox AB.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SINGBOX AB "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SINGBOX AB OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Singbox AB.
+ */
+
+package se.singbox.tasks;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import se.singbox.filetypes.GeneratedFile;
+import se.singbox.filetypes.LocaleManifest;
+import se.singbox.filetypes.LocaleRowHandler;
+import se.singbox.filetypes.LocaleSourceReader;
+import se.singbox.metrics.TaskMetrics;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Base class for the tasks which generate locale properties files from a master file.
+ * The master file is streamed, ie. each row is written to the properties files as soon
+ * as it has been read, so memory use does not depend on the size of the master file.
+ * It accepts the following attribute arguments:
+ * <ul>
+ * <li>outputDir: Directory to write output properties files</li>
+ * <li>propertyFileName: Filename to use for the generated properties files</li>
+ * <li>manifestFile: File in which to remember a digest of each locale's column between
+ * builds, disabled by default</li>
+ * </ul>
+ */
+public abstract class PropertiesGeneratorTask extends InstrumentedTask {
+  private String outputDir = null;
+  private String propertyFileName = "myResources.properties";
+  private String manifestFile = null;
+
+  /**
+   * Writes the properties file of each locale in a master file
+   * @param masterFile Master file containing all locale keys
+   * @param reader Reader for the format of the master file
+   */
+  protected void generate(String masterFile, LocaleSourceReader reader) throws IOException {
+    TaskMetrics metrics = startMetrics();
+    long startTime = System.nanoTime();
+    LocaleManifest manifest = null;
+    Set<String> changedLocales = null;
+    int numUnchangedLocales = 0;
+    int numRows = 0;
+    if(manifestFile != null) {
+      manifest = new LocaleManifest(new File(manifestFile), getManifestSettings());
+      if(!manifest.load()) {
+        log("No usable manifest in " + manifestFile + ", regenerating all locales");
+      }
+      if(manifest.updateMaster(new File(masterFile)) && missingOutputs(manifest.getLocales()).isEmpty()) {
+        numUnchangedLocales = manifest.getLocales().size();
+        log(masterFile + " is unchanged, skipped " + numUnchangedLocales + " locales");
+        manifest.save();
+        metrics.addCount(TaskMetrics.PHASE_WRITE_OUTPUTS, TaskMetrics.COUNT_SKIPPED, numUnchangedLocales);
+        publishMetrics(metrics);
+        return;
+      }
+
+      // Digesting is much cheaper than writing, so the unchanged locales are found
+      // before any properties file is opened
+      LocaleManifest.ColumnDigester digester = new LocaleManifest.ColumnDigester();
+      reader.read(masterFile, digester);
+      changedLocales = manifest.updateColumns(digester);
+      changedLocales.addAll(missingOutputs(manifest.getLocales()));
+      numUnchangedLocales = manifest.getLocales().size() - changedLocales.size();
+      numRows = digester.getNumRows();
+      log("Regenerating " + changedLocales.size() + " of " + manifest.getLocales().size() + " locales");
+    }
+
+    PropertiesWriter writer = new PropertiesWriter(changedLocales);
+    if(changedLocales == null || !changedLocales.isEmpty()) {
+      try {
+        reader.read(masterFile, writer);
+        writer.logTotals(masterFile);
+        writer.commit();
+      }
+      finally {
+        writer.close();
+      }
+      numRows = writer.numRows;
+    }
+    if(manifest != null) {
+      manifest.save();
+    }
+
+    // Rows are written while parsing, so parsing is whatever time was not spent writing
+    long totalTime = System.nanoTime() - startTime;
+    metrics.addTime(TaskMetrics.PHASE_PARSE_MASTER, totalTime - writer.writeNanos);
+    metrics.addFile(TaskMetrics.PHASE_PARSE_MASTER, new File(masterFile), new File(masterFile).length(),
+      totalTime - writer.writeNanos);
+    metrics.addCount(TaskMetrics.PHASE_PARSE_MASTER, TaskMetrics.COUNT_ROWS, numRows);
+    metrics.addTime(TaskMetrics.PHASE_WRITE_OUTPUTS, writer.writeNanos);
+    metrics.addCount(TaskMetrics.PHASE_WRITE_OUTPUTS, TaskMetrics.COUNT_ROWS, writer.numValues);
+    metrics.addCount(TaskMetrics.PHASE_WRITE_OUTPUTS, TaskMetrics.COUNT_FILES, writer.numWritten);
+    metrics.addCount(TaskMetrics.PHASE_WRITE_OUTPUTS, TaskMetrics.COUNT_SKIPPED, writer.numSkipped + numUnchangedLocales);
+    log("Wrote " + writer.numWritten + " properties files, skipped " + (writer.numSkipped + numUnchangedLocales) +
+      " unchanged files");
+    publishMetrics(metrics);
+  }
+
+  /**
+   * Settings which must match for a manifest to be used, as a manifest only tells which
+   * locales changed if the properties files were generated to the same place
+   */
+  private String getManifestSettings() throws IOException {
+    return getClass().getName() + "\n" + new File(outputDir).getCanonicalPath() + "\n" + propertyFileName;
+  }
+
+  /** @return The given locales whose properties file does not exist */
+  private Set<String> missingOutputs(Set<String> locales) {
+    Set<String> missingLocales = new HashSet<String>();
+    for(String locale : locales) {
+      if(!new File(outputDir + System.getProperty("file.separator") + locale, propertyFileName).isFile()) {
+        missingLocales.add(locale);
+      }
+    }
+    return missingLocales;
+  }
+
+  /** Writes each row of the master file to the properties file of every locale */
+  private class PropertiesWriter implements LocaleRowHandler {
+    /** Locales to write, or null for all of them */
+    private final Set<String> writtenLocales;
+    private final List<String> locales = new ArrayList<String>();
+    /**
+     * Output files and their streams in the order of the locales in the header, or null
+     * for the locales which are not written
+     */
+    private final List<GeneratedFile> outFiles = new ArrayList<GeneratedFile>();
+    private final List<BufferedWriter> outStreams = new ArrayList<BufferedWriter>();
+    private final String lineSeparator = System.getProperty("line.separator");
+    private int numRows = 0;
+    private int numValues = 0;
+    /** Number of rows without a string, for each locale */
+    private int[] numMissing = null;
+    /** Reused for every value, as values are escaped before they are written */
+    private char[] valueBuffer = new char[256];
+    private long writeNanos = 0;
+    private int numWritten = 0;
+    private int numSkipped = 0;
+
+    PropertiesWriter(Set<String> writtenLocales) {
+      this.writtenLocales = writtenLocales;
+    }
+
+    public void handleHeader(List<String> locales) throws IOException {
+      long writeStart = System.nanoTime();
+      numMissing = new int[locales.size()];
+      // Create directories and open an output stream for each locale
+      for(String locale : locales) {
+        this.locales.add(locale);
+        if(writtenLocales != null && !writtenLocales.contains(locale)) {
+          outFiles.add(null);
+          outStreams.add(null);
+          continue;
+        }
+        File localeDir = new File(outputDir + System.getProperty("file.separator") + locale);
+        if(!localeDir.isDirectory() && !localeDir.mkdirs()) {
+          throw new BuildException("Could not create output subdirectory '" + localeDir.toString() + "'");
+        }
+        GeneratedFile outFile = new GeneratedFile(new File(localeDir, propertyFileName));
+        outFiles.add(outFile);
+        outStreams.add(new BufferedWriter(new OutputStreamWriter(outFile.getOutputStream(), "UTF8")));
+      }
+      writeNanos += System.nanoTime() - writeStart;
+    }
+
+    public void handleRow(String key, List<CharSequence> values) throws IOException {
+      long writeStart = System.nanoTime();
+      if(values.size() > outStreams.size()) {
+        throw new IOException("Key '" + key + "' has more values than there are locales");
+      }
+      for(int i = 0; i < outStreams.size(); i++) {
+        if(i >= values.size() || values.get(i) == null) {
+          log("Missing string for key '" + key + "' for locale '" + locales.get(i) + "'", Project.MSG_VERBOSE);
+          numMissing[i]++;
+          continue;
+        }
+        BufferedWriter outFile = outStreams.get(i);
+        if(outFile == null) {
+          continue;
+        }
+        outFile.write(key);
+        outFile.write('=');
+        writeValue(outFile, values.get(i));
+        outFile.write(lineSeparator);
+        numValues++;
+      }
+      numRows++;
+      writeNanos += System.nanoTime() - writeStart;
+    }
+
+    /**
+     * Writes a value which has already been unquoted by the reader.  Values may span
+     * several lines, so line breaks are escaped as in a properties file.
+     */
+    private void writeValue(Writer outFile, CharSequence value) throws IOException {
+      int length = value.length();
+      if(valueBuffer.length < length * 2) {
+        valueBuffer = new char[length * 2];
+      }
+      int numChars = 0;
+      for(int i = 0; i < length; i++) {
+        char c = value.charAt(i);
+        if(c == '\n') {
+          valueBuffer[numChars++] = '\\';
+          valueBuffer[numChars++] = 'n';
+        }
+        else if(c == '\r') {
+          valueBuffer[numChars++] = '\\';
+          valueBuffer[numChars++] = 'r';
+        }
+        else {
+          valueBuffer[numChars++] = c;
+        }
+      }
+      outFile.write(valueBuffer, 0, numChars);
+    }
+
+    /** Logs how many keys were found, and warns about the locales missing some strings */
+    void logTotals(String masterFile) {
+      log(masterFile + ": found " + numRows + " keys for " + locales.size() + " locales", Project.MSG_VERBOSE);
+      for(int i = 0; i < locales.size(); i++) {
+        if(numMissing[i] > 0) {
+          log("Missing " + numMissing[i] + " of " + numRows + " strings for locale '" + locales.get(i) + "'",
+            Project.MSG_WARN);
+        }
+      }
+    }
+
+    /** Replaces the properties files whose content changed */
+    void commit() throws IOException {
+      long writeStart = System.nanoTime();
+      for(int i = 0; i < outFiles.size(); i++) {
+        if(outFiles.get(i) == null) {
+          continue;
+        }
+        outStreams.get(i).close();
+        if(outFiles.get(i).commit()) {
+          log("Wrote " + outFiles.get(i).getTarget(), Project.MSG_VERBOSE);
+          numWritten++;
+        }
+        else {
+          numSkipped++;
+        }
+      }
+      writeNanos += System.nanoTime() - writeStart;
+    }
+
+    /** Removes the temporary files of properties files which were not committed */
+    void close() throws IOException {
+      for(GeneratedFile outFile : outFiles) {
+        if(outFile != null) {
+          outFile.close();
+        }
+      }
+    }
+  }
+
+  protected String getOutputDir() {
+    return outputDir;
+  }
+
+  public void setOutputDir(String dirname) {
+    outputDir = dirname;
+  }
+
+  public void setPropertyFileName(String filename) {
+    propertyFileName = filename;
+  }
+
+  public void setManifestFile(String filename) {
+    manifestFile = filename;
+  }
+}
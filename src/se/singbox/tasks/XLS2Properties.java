@@ -29,13 +29,8 @@
 package se.singbox.tasks;
 
 import org.apache.tools.ant.BuildException;
-import org.apache.tools.ant.Task;
-import se.singbox.filetypes.LocaleStringDictionary;
-import se.singbox.filetypes.LocaleStringSet;
 import se.singbox.filetypes.XLSFile;
-
-import java.io.*;
-import java.util.HashMap;
+import se.singbox.filetypes.XLSXFile;
 
 /**
  * This task generates locale properties files given a Microsoft Excel spreadsheet
@@ -52,83 +47,38 @@ import java.util.HashMap;
  * above example, xx_YY and yy_ZZ represent the locale codes, like en_US or sv_SV.  This
  * task accepts the following attribute arguments:
  * <ul>
- * <li>inputXLSFile: Excel spreadsheet to read locale strings from</li>
+ * <li>inputXLSFile: Excel spreadsheet to read locale strings from.  Files ending with
+ * .xlsx are read as Excel 2007 workbooks, which have no limit of 65536 rows.</li>
  * <li>outputDir: Directory to generate output properties files in</li>
  * <li>propertyFileName: Name to use for generated properties files</li>
+ * <li>manifestFile: File in which to remember a digest of each locale's column between
+ * builds.  Only the locales whose column changed, or whose properties file is missing,
+ * are then regenerated, and the spreadsheet is not parsed at all if it is unchanged.
+ * Disabled by default.</li>
  * </ul>
+ * The spreadsheet is streamed, so memory use does not depend on its size.  Strings which
+ * span several lines are written with escaped line breaks.
+ * Properties files whose content would not change are left alone, so that their
+ * modification times don't trigger needless recompiles.  Changed files are replaced
+ * atomically.
+ * The time spent parsing the spreadsheet and writing the properties files can be
+ * exported with the attributes of InstrumentedTask.
  */
 @SuppressWarnings({"UnusedDeclaration"})
 // Is a top-level class
-public class XLS2Properties extends Task {
+public class XLS2Properties extends PropertiesGeneratorTask {
   private String inputXLSFile = null;
-  private String outputDir = null;
-  private String propertyFileName = "myResources.properties";
-
-  // TODO: This code could be easily refactored -- duh
 
   public void execute() {
     if(inputXLSFile == null) {
       throw new BuildException("Attribute 'xlsFile' must be specified");
     }
-    else if(outputDir == null) {
+    else if(getOutputDir() == null) {
       throw new BuildException("Attribute 'outputDir' must be specified");
     }
 
     try {
-      XLSFile inFile = new XLSFile();
-      LocaleStringDictionary inStrings = inFile.read(inputXLSFile);
-      if(inStrings == null) {
-        throw new BuildException("Error while parsing XLS file");
-      }
-
-      // Build a map of locale names and output file streams
-      LocaleStringSet localeNames = inStrings.get("LOCALE KEY");
-      if(localeNames == null) {
-        throw new IOException("Could not find 'LOCALE KEY' string in input map");
-      }
-      HashMap<String, BufferedWriter> outStreams = new HashMap<String, BufferedWriter>();
-
-      // Now create directories and populate the outStreams map
-      for(Object locale : localeNames.keySet()) {
-        File localeDir = new File(outputDir + System.getProperty("file.separator") + locale.toString());
-        if(!localeDir.exists()) {
-          if(!localeDir.mkdir()) {
-            throw new BuildException("Could not create output subdirectory '" + localeDir.toString() + "'");
-          }
-        }
-        String localeFileName = localeDir.toString() + System.getProperty("file.separator") + propertyFileName;
-
-        // This is probably unnecessary, but it never hurts
-        File localeFileNameExists = new File(localeFileName);
-        if(localeFileNameExists.exists()) {
-          if(!localeFileNameExists.delete()) {
-            throw new BuildException("Could not remove '" + localeFileName + "'");
-          }
-        }
-
-        BufferedWriter outWriter = new BufferedWriter(new OutputStreamWriter(
-          new FileOutputStream(localeFileName), "UTF8"));
-        System.out.println("Created " + localeFileName);
-        outStreams.put(locale.toString(), outWriter);
-      }
-
-      // This key is no longer needed
-      inStrings.remove("LOCALE KEY");
-
-      // Now go through each key and add it to the respective locale
-      for(String key : inStrings.keySet()) {
-        LocaleStringSet keyStrings = inStrings.get(key);
-        for(String locale : keyStrings.keySet()) {
-          // System.out.println(key + ": " + locale + ": " + keyStrings.get(locale));
-          BufferedWriter outWriter = outStreams.get(locale);
-          if(outWriter == null) {
-            throw new BuildException("Internal error -- could not find stream for key");
-          }
-          outWriter.write(key + "=" + keyStrings.get(locale));
-          outWriter.newLine();
-          outWriter.flush();
-        }
-      }
+      generate(inputXLSFile, inputXLSFile.toLowerCase().endsWith(".xlsx") ? new XLSXFile() : new XLSFile());
     }
     catch(Exception e) {
       throw new BuildException(e);
@@ -138,12 +88,4 @@ public class XLS2Properties extends Task {
   public void setXLSFile(String filename) {
     inputXLSFile = filename;
   }
-
-  public void setOutputDir(String dirname) {
-    outputDir = dirname;
-  }
-
-  public void setPropertyFileName(String filename) {
-    propertyFileName = filename;
-  }
 }